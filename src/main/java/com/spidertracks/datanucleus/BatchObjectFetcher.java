@@ -0,0 +1,318 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors : Todd Nine
+ ***********************************************************************/
+package com.spidertracks.datanucleus;
+
+import static com.spidertracks.datanucleus.utils.MetaDataUtils.getColumnFamily;
+import static com.spidertracks.datanucleus.utils.MetaDataUtils.getDiscriminatorColumnName;
+import static com.spidertracks.datanucleus.utils.MetaDataUtils.getFetchColumnList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.jdo.identity.SingleFieldIdentity;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.FetchPlan;
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.datanucleus.exceptions.NucleusObjectNotFoundException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.store.ExecutionContext;
+import org.datanucleus.store.FieldValues2;
+import org.datanucleus.store.ObjectProvider;
+import org.scale7.cassandra.pelops.Bytes;
+import org.scale7.cassandra.pelops.Pelops;
+import org.scale7.cassandra.pelops.Selector;
+
+import com.spidertracks.datanucleus.client.Consistency;
+import com.spidertracks.datanucleus.convert.ByteConverterContext;
+
+/**
+ * Loads the default fetch group of many objects with multiget reads instead of
+ * a single read per object. Identities are grouped by their target class, then
+ * the rows for each group are read in chunks of
+ * {@link CassandraStoreManager#getMultigetSize()} keys. The returned columns
+ * are used to hydrate the ObjectProviders of the execution context.
+ *
+ * @author Todd Nine
+ *
+ */
+public class BatchObjectFetcher {
+
+	private ExecutionContext ec;
+	private ClassLoaderResolver clr;
+	private ByteConverterContext byteContext;
+	private Selector selector;
+	private int multigetSize;
+
+	public BatchObjectFetcher(ExecutionContext ec) {
+		CassandraStoreManager manager = (CassandraStoreManager) ec
+				.getStoreManager();
+
+		this.ec = ec;
+		this.clr = ec.getClassLoaderResolver();
+		this.byteContext = manager.getByteConverterContext();
+		this.selector = Pelops.createSelector(manager.getPoolName());
+		this.multigetSize = manager.getMultigetSize();
+	}
+
+	/**
+	 * Load all objects with the given identities. The results are returned in
+	 * the same order as the identities. Identities that are not in the column
+	 * family of their class are read on their own, so objects stored in the
+	 * table of a subclass are found. Identities that do not exist are not
+	 * returned.
+	 *
+	 * @param identities
+	 *            The single field identities to load
+	 * @param ignoreCache
+	 *            True if the execution context's cache should be ignored
+	 * @return
+	 */
+	public List<Object> fetchObjects(List<?> identities, boolean ignoreCache) {
+
+		Map<Object, Object> loaded = fetchObjectMap(identities, ignoreCache);
+
+		List<Object> results = new ArrayList<Object>(loaded.size());
+
+		// keep the order of the identities we were passed
+		for (Object identity : identities) {
+			Object result = loaded.get(identity);
+
+			if (result != null) {
+				results.add(result);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Load all objects with the given identities. Identities that do not exist
+	 * are not in the returned map. Duplicate identities are only read once.
+	 *
+	 * @param identities
+	 *            The single field identities to load
+	 * @param ignoreCache
+	 *            True if the execution context's cache should be ignored
+	 * @return The loaded objects keyed by their identity
+	 */
+	public Map<Object, Object> fetchObjectMap(Collection<?> identities,
+			boolean ignoreCache) {
+
+		// group our identities by class so each group can share a predicate
+		Map<String, Set<Object>> byClass = new LinkedHashMap<String, Set<Object>>();
+
+		for (Object identity : identities) {
+			if (!(identity instanceof SingleFieldIdentity)) {
+				throw new NucleusDataStoreException(
+						"Only single field identities are supported");
+			}
+
+			String className = ((SingleFieldIdentity) identity)
+					.getTargetClassName();
+
+			Set<Object> group = byClass.get(className);
+
+			if (group == null) {
+				group = new LinkedHashSet<Object>();
+				byClass.put(className, group);
+			}
+
+			group.add(identity);
+		}
+
+		Map<Object, Object> loaded = new LinkedHashMap<Object, Object>(
+				identities.size());
+
+		for (Entry<String, Set<Object>> group : byClass.entrySet()) {
+			AbstractClassMetaData metaData = ec.getMetaDataManager()
+					.getMetaDataForClass(group.getKey(), clr);
+
+			List<Object> ids = new ArrayList<Object>(group.getValue());
+
+			for (int start = 0; start < ids.size(); start += multigetSize) {
+				fetchChunk(metaData,
+						ids.subList(start,
+								Math.min(start + multigetSize, ids.size())),
+						ignoreCache, loaded);
+			}
+		}
+
+		return loaded;
+	}
+
+	/**
+	 * Read a single chunk of rows with a multiget and hydrate the objects
+	 *
+	 * @param metaData
+	 * @param ids
+	 * @param ignoreCache
+	 * @param loaded
+	 */
+	private void fetchChunk(AbstractClassMetaData metaData, List<Object> ids,
+			boolean ignoreCache, Map<Object, Object> loaded) {
+
+		final String columnFamily = getColumnFamily(metaData);
+		final int[] fieldNumbers = metaData.getDFGMemberPositions();
+
+		Bytes descriminatorColumn = null;
+
+		SlicePredicate predicate = getFetchColumnList(metaData, fieldNumbers);
+
+		// read the discriminator as well so we instantiate the right subclass
+		if (metaData.hasDiscriminatorStrategy()) {
+			descriminatorColumn = getDiscriminatorColumnName(metaData
+					.getDiscriminatorMetaData());
+
+			predicate.addToColumn_names(descriminatorColumn.getBytes());
+		}
+
+		List<Bytes> keys = new ArrayList<Bytes>(ids.size());
+
+		for (Object identity : ids) {
+			keys.add(byteContext.getRowKeyForId(identity));
+		}
+
+		Map<Bytes, List<Column>> rows;
+
+		try {
+			rows = selector.getColumnsFromRows(columnFamily, keys, predicate,
+					Consistency.get());
+		} catch (Exception e) {
+			throw new NucleusDataStoreException(e.getMessage(), e);
+		}
+
+		for (int i = 0; i < ids.size(); i++) {
+			final Bytes key = keys.get(i);
+			final List<Column> columns = rows.get(key);
+
+			// the row may be in the table of a subclass
+			if (columns == null || columns.size() == 0) {
+				findSingle(ids.get(i), loaded);
+				continue;
+			}
+
+			Object identity = resolveSubclass(ids.get(i), metaData,
+					descriminatorColumn, columns, columnFamily);
+
+			if (identity == null) {
+				// the subclass is stored elsewhere, fall back to a single read
+				findSingle(ids.get(i), loaded);
+				continue;
+			}
+
+			Object result = ec.findObject(identity, new FieldValues2() {
+
+				@Override
+				public void fetchFields(ObjectProvider op) {
+					op.replaceFields(fieldNumbers,
+							new CassandraFetchFieldManager(columns, op,
+									columnFamily, key, selector));
+				}
+
+				@Override
+				public void fetchNonLoadedFields(ObjectProvider op) {
+					op.replaceNonLoadedFields(fieldNumbers,
+							new CassandraFetchFieldManager(columns, op,
+									columnFamily, key, selector));
+				}
+
+				@Override
+				public FetchPlan getFetchPlanForLoading() {
+					return null;
+				}
+
+			}, null, ignoreCache);
+
+			loaded.put(ids.get(i), result);
+		}
+	}
+
+	/**
+	 * Load a single object, checking the tables of every subclass. Nothing is
+	 * loaded if the object doesn't exist
+	 *
+	 * @param identity
+	 * @param loaded
+	 */
+	private void findSingle(Object identity, Map<Object, Object> loaded) {
+		try {
+			loaded.put(identity, ec.findObject(identity, true, true, null));
+		} catch (NucleusObjectNotFoundException nonfe) {
+			// swallow, the object no longer exists
+		}
+	}
+
+	/**
+	 * If the row's discriminator points to a subclass, return the identity of
+	 * the subclass. Returns null if the subclass is persisted in another column
+	 * family and cannot be hydrated from this row
+	 *
+	 * @param identity
+	 * @param metaData
+	 * @param descriminatorColumn
+	 * @param columns
+	 * @param columnFamily
+	 * @return
+	 */
+	private Object resolveSubclass(Object identity,
+			AbstractClassMetaData metaData, Bytes descriminatorColumn,
+			List<Column> columns, String columnFamily) {
+
+		if (descriminatorColumn == null) {
+			return identity;
+		}
+
+		for (Column column : columns) {
+			if (!descriminatorColumn.equals(Bytes.fromByteBuffer(column.name))) {
+				continue;
+			}
+
+			String descriminatorValue = byteContext.getString(Bytes
+					.fromByteBuffer(column.value));
+
+			String className = org.datanucleus.metadata.MetaDataUtils
+					.getClassNameFromDiscriminatorValue(descriminatorValue,
+							metaData.getDiscriminatorMetaData(), ec);
+
+			if (className == null
+					|| className.equals(metaData.getFullClassName())) {
+				return identity;
+			}
+
+			AbstractClassMetaData subclass = ec.getMetaDataManager()
+					.getMetaDataForClass(className, clr);
+
+			if (!columnFamily.equals(getColumnFamily(subclass))) {
+				return null;
+			}
+
+			return ec.newObjectId(clr.classForName(className),
+					((SingleFieldIdentity) identity).getKeyAsObject());
+		}
+
+		return identity;
+	}
+}
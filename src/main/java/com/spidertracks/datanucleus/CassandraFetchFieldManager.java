@@ -17,9 +17,8 @@ Contributors : Pedro Gomes and Universidade do Minho.
  ***********************************************************************/
 package com.spidertracks.datanucleus;
 
-import static com.spidertracks.datanucleus.utils.MetaDataUtils.getColumnName;
-
 import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -27,6 +26,7 @@ import java.util.Map;
 
 import org.apache.cassandra.thrift.Column;
 import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.FetchPlan;
 import org.datanucleus.api.ApiAdapter;
 import org.datanucleus.exceptions.NucleusDataStoreException;
 import org.datanucleus.exceptions.NucleusException;
@@ -42,9 +42,17 @@ import org.scale7.cassandra.pelops.Bytes;
 import org.scale7.cassandra.pelops.Selector;
 
 import com.spidertracks.datanucleus.collection.CassEntry;
+import com.spidertracks.datanucleus.collection.ExternalEntityWriter;
+import com.spidertracks.datanucleus.collection.LazyCollection;
+import com.spidertracks.datanucleus.collection.LazyList;
+import com.spidertracks.datanucleus.collection.LazyMap;
+import com.spidertracks.datanucleus.collection.LazyRelation;
+import com.spidertracks.datanucleus.collection.LazySet;
 import com.spidertracks.datanucleus.collection.ReadCollection;
 import com.spidertracks.datanucleus.collection.ReadMap;
+import com.spidertracks.datanucleus.collection.RelationLocation;
 import com.spidertracks.datanucleus.convert.ByteConverterContext;
+import com.spidertracks.datanucleus.convert.CodecPlan;
 
 /**
  * @author Todd Nine
@@ -52,6 +60,16 @@ import com.spidertracks.datanucleus.convert.ByteConverterContext;
  */
 public class CassandraFetchFieldManager extends AbstractFieldManager {
 
+	/**
+	 * Columns read per slice when the fetch size is left to us
+	 */
+	private static final int DEFAULT_PAGE_SIZE = 100;
+
+	/**
+	 * Field extension to load a collection or map lazily
+	 */
+	private static final String LAZY_EXTENSION = "cache-lazy-loading";
+
 	private Map<Bytes, Bytes> columns;
 	private AbstractClassMetaData metaData;
 	private ObjectProvider objectProvider;
@@ -61,6 +79,7 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 	private String columnFamily;
 	private Bytes rowKey;
 	private Selector selector;
+	private CodecPlan plan;
 
 	/**
 	 * @param columns
@@ -79,15 +98,18 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 		this.columnFamily = columnFamily;
 		this.rowKey = rowKey;
 		this.selector = selector;
+		this.plan = byteContext.getCodecPlan(metaData, clr);
 
 		// rather than iterate over every field call for O(n) it's faster to
 		// take our O(n) hit up front then perform an O(1) lookup. Sorting and
 		// searching is O(n log (n)) sort plus log n search
 		this.columns = new HashMap<Bytes, Bytes>();
 
+		// getName() and getValue() copy the thrift buffers, duplicating them
+		// shares the bytes read off the wire
 		for (Column column : columns) {
-			this.columns.put(Bytes.fromBytes(column.getName()),
-					Bytes.fromBytes(column.getValue()));
+			this.columns.put(Bytes.fromByteBuffer(column.name.duplicate()),
+					Bytes.fromByteBuffer(column.value.duplicate()));
 		}
 
 	}
@@ -97,10 +119,10 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 
 		try {
 
-			Bytes columnName = getColumnName(metaData, fieldNumber);
+			Bytes columnName = plan.getColumnName(fieldNumber);
 			Bytes value = this.columns.get(columnName);
 
-			return (Boolean) byteContext.getBoolean(value);
+			return byteContext.getBooleanValue(value);
 
 		} catch (Exception e) {
 			throw new NucleusException(e.getMessage(), e);
@@ -111,7 +133,7 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 	public byte fetchByteField(int fieldNumber) {
 		try {
 
-			Bytes columnName = getColumnName(metaData, fieldNumber);
+			Bytes columnName = plan.getColumnName(fieldNumber);
 			Bytes value = this.columns.get(columnName);
 
 			return value.toByte();
@@ -125,10 +147,10 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 	public char fetchCharField(int fieldNumber) {
 		try {
 
-			Bytes columnName = getColumnName(metaData, fieldNumber);
+			Bytes columnName = plan.getColumnName(fieldNumber);
 			Bytes value = this.columns.get(columnName);
 
-			return (Character) byteContext.getCharacter(value);
+			return byteContext.getCharValue(value);
 
 		} catch (Exception e) {
 			throw new NucleusException(e.getMessage(), e);
@@ -139,10 +161,10 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 	public double fetchDoubleField(int fieldNumber) {
 		try {
 
-			Bytes columnName = getColumnName(metaData, fieldNumber);
+			Bytes columnName = plan.getColumnName(fieldNumber);
 			Bytes value = this.columns.get(columnName);
 
-			return (Double) byteContext.getDouble(value);
+			return byteContext.getDoubleValue(value);
 
 		} catch (Exception e) {
 			throw new NucleusException(e.getMessage(), e);
@@ -153,10 +175,10 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 	public float fetchFloatField(int fieldNumber) {
 		try {
 
-			Bytes columnName = getColumnName(metaData, fieldNumber);
+			Bytes columnName = plan.getColumnName(fieldNumber);
 			Bytes value = this.columns.get(columnName);
 
-			return (Float) byteContext.getFloat(value);
+			return byteContext.getFloatValue(value);
 
 		} catch (Exception e) {
 			throw new NucleusException(e.getMessage(), e);
@@ -167,10 +189,10 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 	public int fetchIntField(int fieldNumber) {
 		try {
 
-			Bytes columnName = getColumnName(metaData, fieldNumber);
+			Bytes columnName = plan.getColumnName(fieldNumber);
 			Bytes column = this.columns.get(columnName);
 
-			return (Integer) byteContext.getInteger(column);
+			return byteContext.getIntValue(column);
 
 		} catch (Exception e) {
 			throw new NucleusException(e.getMessage(), e);
@@ -181,10 +203,10 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 	public long fetchLongField(int fieldNumber) {
 		try {
 
-			Bytes columnName = getColumnName(metaData, fieldNumber);
+			Bytes columnName = plan.getColumnName(fieldNumber);
 			Bytes column = this.columns.get(columnName);
 
-			return (Long) byteContext.getLong(column);
+			return byteContext.getLongValue(column);
 
 		} catch (Exception e) {
 			throw new NucleusException(e.getMessage(), e);
@@ -196,13 +218,12 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 	public Object fetchObjectField(int fieldNumber) {
 		try {
 
-			Bytes columnName = getColumnName(metaData, fieldNumber);
+			Bytes columnName = plan.getColumnName(fieldNumber);
 			Bytes column = columns.get(columnName);
 
-			AbstractMemberMetaData fieldMetaData = this.metaData
-					.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
+			AbstractMemberMetaData fieldMetaData = plan.getMember(fieldNumber);
 
-			int relationType = fieldMetaData.getRelationType(clr);
+			int relationType = plan.getRelationType(fieldNumber);
 
 			if (relationType == Relation.ONE_TO_ONE_BI
 					|| relationType == Relation.ONE_TO_ONE_UNI
@@ -239,12 +260,31 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 					|| relationType == Relation.ONE_TO_MANY_BI
 					|| relationType == Relation.ONE_TO_MANY_UNI) {
 
+				RelationLocation location = RelationLocation.forField(
+						fieldMetaData, columnFamily, rowKey, columnName);
+
 				if (Collection.class.isAssignableFrom(fieldMetaData.getType())) {
 
 					Collection<Object> coll;
 					Class<?> elementClass = clr.classForName(fieldMetaData
 							.getCollection().getElementType());
 
+					if (isLazy(fieldMetaData)) {
+						LazyCollection lazy = new LazyCollection(
+								objectProvider, fieldNumber, selector,
+								byteContext, location.getColumnFamily(),
+								location.getRowKey(), location.getColumn(),
+								elementClass, getPageSize());
+
+						// already reads and writes through, don't wrap it
+						if (List.class.isAssignableFrom(fieldMetaData
+								.getType())) {
+							return new LazyList(lazy);
+						}
+
+						return new LazySet(lazy);
+					}
+
 					try {
 						Class<?> instanceType = SCOUtils
 								.getContainerInstanceType(
@@ -259,26 +299,28 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 
 					// get our list of Strings
 
-					ReadCollection columnFetcher = new ReadCollection(selector, 
-							byteContext, columnFamily, rowKey, columnName,
-							context, elementClass);
-
-					// TODO use context.getFetchPlan().getFetchSize()
-					columnFetcher.fetchColumns(100, null);
+					ReadCollection columnFetcher = new ReadCollection(selector,
+							byteContext, location.getColumnFamily(),
+							location.getRowKey(), location.getColumn(),
+							context, elementClass, getPageSize());
 
-					for (Object key : columnFetcher) {
+					// remember the columns so the next write needs no read
+					objectProvider.setAssociatedValue(
+							ExternalEntityWriter.getTrackedColumnsKey(fieldNumber),
+							columnFetcher.trackColumns());
 
-						try {
-							Object element = context.findObject(key, false,
-									true, fieldMetaData.getTypeName());
+					List<Object> ids = new ArrayList<Object>();
 
-							coll.add(element);
-						} catch (NucleusObjectNotFoundException nonfe) {
-							// swallow. TODO remove the lazy reference if record
-							// is over tombstone time
-						}
+					for (Object key : columnFetcher) {
+						ids.add(key);
 					}
 
+					// load every element with a multiget. Elements without a
+					// row are left out. TODO remove the lazy reference if
+					// record is over tombstone time
+					coll.addAll(new BatchObjectFetcher(context).fetchObjects(
+							ids, false));
+
 					if (coll.size() == 0) {
 						return null;
 					}
@@ -327,47 +369,70 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 										clr, context.getMetaDataManager()));
 					}
 
-					// TODO use context.getFetchPlan().getFetchSize()
-					ReadMap mapReader = new ReadMap(selector, byteContext, columnFamily,
-							rowKey, columnName, storedKeyClass,
-							storedValueClass);
-					mapReader.fetchColumns(100, null);
+					if (isLazy(fieldMetaData)) {
+						return new LazyMap(new LazyRelation(objectProvider,
+								fieldNumber, selector, byteContext,
+								location.getColumnFamily(),
+								location.getRowKey(), location.getColumn(),
+								getPageSize()), keyClass, valueClass,
+								storedKeyClass, storedValueClass);
+					}
+
+					ReadMap mapReader = new ReadMap(selector, byteContext,
+							location.getColumnFamily(), location.getRowKey(),
+							location.getColumn(), storedKeyClass,
+							storedValueClass, getPageSize());
+
+					objectProvider.setAssociatedValue(
+							ExternalEntityWriter.getTrackedColumnsKey(fieldNumber),
+							mapReader.trackColumns());
+
+					List<CassEntry> entries = new ArrayList<CassEntry>();
+					List<Object> ids = new ArrayList<Object>();
 
 					for (CassEntry entry : mapReader) {
 
-						try {
-							Object key = null;
+						if (pcKey) {
+							entry = new CassEntry(context.newObjectId(keyClass,
+									entry.getKey()), entry.getValue());
+							ids.add(entry.getKey());
+						}
+
+						if (pcValue) {
+							entry = new CassEntry(entry.getKey(),
+									context.newObjectId(valueClass,
+											entry.getValue()));
+							ids.add(entry.getValue());
+						}
 
-							if (pcKey) {
+						entries.add(entry);
+					}
 
-								key = context.findObject(
-										context.newObjectId(keyClass,
-												entry.getKey()), false, true,
+					// load all the persistent keys and values with a multiget
+					Map<Object, Object> loaded = new BatchObjectFetcher(
+							context).fetchObjectMap(ids, false);
 
-										fieldMetaData.getTypeName());
-							} else {
-								key = entry.getKey();
-							}
+					for (CassEntry entry : entries) {
 
-							Object value = null;
+						Object key = entry.getKey();
 
-							if (pcValue) {
-								value = context.findObject(
-										context.newObjectId(valueClass,
-												entry.getValue()), false, true,
+						if (pcKey) {
+							key = loaded.get(key);
+						}
 
-										fieldMetaData.getTypeName());
-							} else {
-								value = entry.getValue();
-							}
+						Object value = entry.getValue();
 
-							map.put(key, value);
-						} catch (NucleusObjectNotFoundException nonfe) {
-							// swallow. TODO remove the lazy reference if record
-							// is over
-							// tombstone time
+						if (pcValue) {
+							value = loaded.get(value);
 						}
 
+						// swallow entries that no longer exist. TODO remove
+						// the lazy reference if record is over tombstone time
+						if ((pcKey && key == null) || (pcValue && value == null)) {
+							continue;
+						}
+
+						map.put(key, value);
 					}
 
 					if (map.size() == 0) {
@@ -379,30 +444,46 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 
 				} else if (fieldMetaData.getType().isArray()) {
 
-					ReadMap mapReader = new ReadMap(selector, byteContext, columnFamily,
-							rowKey, columnName, Integer.class,
-							byteContext.getKeyClass(context, metaData));
-					mapReader.fetchColumns(100, null);
-
-					int columns = mapReader.getColumnCount();
+					ReadMap mapReader = new ReadMap(selector, byteContext,
+							location.getColumnFamily(), location.getRowKey(),
+							location.getColumn(), Integer.class,
+							byteContext.getKeyClass(context, metaData),
+							getPageSize());
 
-					// TODO make this size more
-					Object array = Array.newInstance(fieldMetaData.getType()
-							.getComponentType(), columns);
+					objectProvider.setAssociatedValue(
+							ExternalEntityWriter.getTrackedColumnsKey(fieldNumber),
+							mapReader.trackColumns());
 
 					Class<?> elementClass = clr.classForName(fieldMetaData
 							.getArray().getElementType());
 
-					for (int i = 0; mapReader.hasNext(); i++) {
+					List<CassEntry> entries = new ArrayList<CassEntry>();
+					List<Object> ids = new ArrayList<Object>();
 
-						CassEntry entry = mapReader.next();
+					int length = 0;
+
+					for (CassEntry entry : mapReader) {
 
 						Object id = context.newObjectId(elementClass,
 								entry.getValue());
 
-						Object element = context.findObject(id, false, true, fieldMetaData.getTypeName());
+						entries.add(new CassEntry(entry.getKey(), id));
+						ids.add(id);
 
-						Array.set(array, (Integer) entry.getKey(), element);
+						length = Math.max(length, (Integer) entry.getKey() + 1);
+					}
+
+					Object array = Array.newInstance(fieldMetaData.getType()
+							.getComponentType(), length);
+
+					// load every element with a multiget, missing elements
+					// are left null
+					Map<Object, Object> loaded = new BatchObjectFetcher(
+							context).fetchObjectMap(ids, false);
+
+					for (CassEntry entry : entries) {
+						Array.set(array, (Integer) entry.getKey(),
+								loaded.get(entry.getValue()));
 					}
 
 					return objectProvider.wrapSCOField(fieldNumber, array,
@@ -416,21 +497,61 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 				return null;
 			}
 
-			return byteContext.getObject(column, this.metaData, fieldNumber);
+			return byteContext.getObject(column, plan
+					.getConverter(fieldNumber));
 
 		} catch (Exception e) {
 			throw new NucleusException(e.getMessage(), e);
 		}
 	}
 
+	/**
+	 * Check if the collection or map field should be loaded lazily. The
+	 * cache-lazy-loading extension of the field overrides the
+	 * com.spidertracks.cassandra.collections.lazy property
+	 * 
+	 * @param fieldMetaData
+	 * @return
+	 */
+	private boolean isLazy(AbstractMemberMetaData fieldMetaData) {
+		String lazy = fieldMetaData.getValueForExtension(LAZY_EXTENSION);
+
+		if (lazy != null) {
+			return Boolean.valueOf(lazy);
+		}
+
+		return ((CassandraStoreManager) context.getStoreManager())
+				.isLazyCollections();
+	}
+
+	/**
+	 * Get the number of columns to read per slice of a collection, map or
+	 * array from the fetch size of the fetch plan
+	 * 
+	 * @return
+	 */
+	private int getPageSize() {
+		int fetchSize = context.getFetchPlan().getFetchSize();
+
+		if (fetchSize == FetchPlan.FETCH_SIZE_GREEDY) {
+			return Integer.MAX_VALUE;
+		}
+
+		if (fetchSize == FetchPlan.FETCH_SIZE_OPTIMAL) {
+			return DEFAULT_PAGE_SIZE;
+		}
+
+		return fetchSize;
+	}
+
 	@Override
 	public short fetchShortField(int fieldNumber) {
 		try {
 
-			Bytes columnName = getColumnName(metaData, fieldNumber);
+			Bytes columnName = plan.getColumnName(fieldNumber);
 			Bytes column = this.columns.get(columnName);
 
-			return (Short) byteContext.getShort(column);
+			return byteContext.getShortValue(column);
 
 		} catch (Exception e) {
 			throw new NucleusException(e.getMessage(), e);
@@ -441,7 +562,7 @@ public class CassandraFetchFieldManager extends AbstractFieldManager {
 	public String fetchStringField(int fieldNumber) {
 		try {
 
-			Bytes columnName = getColumnName(metaData, fieldNumber);
+			Bytes columnName = plan.getColumnName(fieldNumber);
 			Bytes column = this.columns.get(columnName);
 
 			return (String) byteContext.getString(column);
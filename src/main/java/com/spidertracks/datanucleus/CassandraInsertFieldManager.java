@@ -17,14 +17,13 @@ Contributors : Pedro Gomes and Universidade do Minho.
  ***********************************************************************/
 package com.spidertracks.datanucleus;
 
-import static com.spidertracks.datanucleus.utils.MetaDataUtils.getColumnName;
-
 import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
-import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.StateManager;
 import org.datanucleus.api.ApiAdapter;
 import org.datanucleus.exceptions.NucleusDataStoreException;
@@ -35,12 +34,17 @@ import org.datanucleus.store.ExecutionContext;
 import org.datanucleus.store.ObjectProvider;
 import org.datanucleus.store.fieldmanager.AbstractFieldManager;
 import org.scale7.cassandra.pelops.Bytes;
-import org.scale7.cassandra.pelops.Mutator;
 import org.scale7.cassandra.pelops.Selector;
 
+import com.spidertracks.datanucleus.collection.ExternalEntityWriter;
+import com.spidertracks.datanucleus.collection.LazyLoaded;
+import com.spidertracks.datanucleus.collection.RelationLocation;
 import com.spidertracks.datanucleus.collection.WriteCollection;
 import com.spidertracks.datanucleus.collection.WriteMap;
 import com.spidertracks.datanucleus.convert.ByteConverterContext;
+import com.spidertracks.datanucleus.convert.CodecPlan;
+import com.spidertracks.datanucleus.mutate.ExecutionContextMutate;
+import com.spidertracks.datanucleus.mutate.MutationBatch;
 
 /**
  * @author Todd Nine
@@ -50,23 +54,31 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 
 	private ExecutionContext context;
 	private Selector selector;
-	private Mutator mutator;
+	private ExecutionContextMutate mutate;
+	private MutationBatch mutator;
 	private AbstractClassMetaData metaData;
 	private ObjectProvider objectProvider;
 	private String columnFamily;
 	private ByteConverterContext byteContext;
 	private Bytes key;
+	private boolean insert;
+	private CodecPlan plan;
 
 	/**
 	 * @param columns
 	 * @param metaData
+	 * @param insert
+	 *            True if this is the initial write of the object, so no
+	 *            relationship columns exist yet
 	 */
-	public CassandraInsertFieldManager(Selector selector, Mutator mutator,
-			ObjectProvider op, String columnFamily, Bytes key) {
+	public CassandraInsertFieldManager(Selector selector,
+			ExecutionContextMutate mutate, ObjectProvider op,
+			String columnFamily, Bytes key, boolean insert) {
 		super();
 
 		this.selector = selector;
-		this.mutator = mutator;
+		this.mutate = mutate;
+		this.mutator = mutate.getMutator();
 		this.objectProvider = op;
 		this.metaData = op.getClassMetaData();
 		this.context = op.getExecutionContext();
@@ -74,6 +86,9 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 				.getByteConverterContext();
 		this.columnFamily = columnFamily;
 		this.key = key;
+		this.insert = insert;
+		this.plan = byteContext.getCodecPlan(metaData, context
+				.getClassLoaderResolver());
 
 	}
 
@@ -82,7 +97,7 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 
 		try {
 			mutator.writeColumn(columnFamily, key, mutator.newColumn(
-					getColumnName(metaData, fieldNumber),
+					plan.getColumnName(fieldNumber),
 					byteContext.getBytes(value)));
 
 		} catch (Exception e) {
@@ -96,7 +111,7 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 		try {
 
 			mutator.writeColumn(columnFamily, key,
-					mutator.newColumn(getColumnName(metaData, fieldNumber),
+					mutator.newColumn(plan.getColumnName(fieldNumber),
 							Bytes.fromByte(value)));
 
 		} catch (Exception e) {
@@ -109,7 +124,7 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 
 		try {
 			mutator.writeColumn(columnFamily, key, mutator.newColumn(
-					getColumnName(metaData, fieldNumber),
+					plan.getColumnName(fieldNumber),
 					byteContext.getBytes(value)));
 
 		} catch (Exception e) {
@@ -122,7 +137,7 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 
 		try {
 			mutator.writeColumn(columnFamily, key, mutator.newColumn(
-					getColumnName(metaData, fieldNumber),
+					plan.getColumnName(fieldNumber),
 					byteContext.getBytes(value)));
 
 		} catch (Exception e) {
@@ -135,7 +150,7 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 
 		try {
 			mutator.writeColumn(columnFamily, key, mutator.newColumn(
-					getColumnName(metaData, fieldNumber),
+					plan.getColumnName(fieldNumber),
 					byteContext.getBytes(value)));
 		} catch (Exception e) {
 			throw new NucleusDataStoreException(e.getMessage(), e);
@@ -147,7 +162,7 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 
 		try {
 			mutator.writeColumn(columnFamily, key, mutator.newColumn(
-					getColumnName(metaData, fieldNumber),
+					plan.getColumnName(fieldNumber),
 					byteContext.getBytes(value)));
 
 		} catch (Exception e) {
@@ -160,7 +175,7 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 
 		try {
 			mutator.writeColumn(columnFamily, key, mutator.newColumn(
-					getColumnName(metaData, fieldNumber),
+					plan.getColumnName(fieldNumber),
 					byteContext.getBytes(value)));
 
 		} catch (Exception e) {
@@ -168,11 +183,61 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 		}
 	}
 
+	/**
+	 * Delete the relationship columns that weren't written. The columns read
+	 * when the field was loaded are diffed without a read. A read is only
+	 * needed when an existing object is written without the field having
+	 * been loaded, or when the last write of the field failed
+	 * 
+	 * @param writer
+	 * @param fieldNumber
+	 */
+	@SuppressWarnings("unchecked")
+	private void removeRemaining(ExternalEntityWriter writer, int fieldNumber) {
+		String trackedKey = ExternalEntityWriter
+				.getTrackedColumnsKey(fieldNumber);
+
+		Set<Bytes> existing = (Set<Bytes>) objectProvider
+				.getAssociatedValue(trackedKey);
+
+		if (existing != null) {
+			writer.removeRemaining(mutator, existing);
+		} else if (!insert) {
+			writer.removeRemaining(mutator);
+		}
+
+		mutate.track(objectProvider, trackedKey, writer.getSavedColumns());
+	}
+
+	/**
+	 * Delete every relationship column of the field. A dedicated row is
+	 * deleted as a whole without reading it
+	 * 
+	 * @param writer
+	 * @param location
+	 * @param fieldNumber
+	 */
+	private void removeAll(ExternalEntityWriter writer,
+			RelationLocation location, int fieldNumber) {
+		// nothing written yet, nothing to delete
+		if (!insert) {
+			if (location.isDedicatedRow()) {
+				mutate.deleteRow(location.getColumnFamily(),
+						location.getRowKey());
+			} else {
+				writer.removeAllColumns(mutator);
+			}
+		}
+
+		mutate.track(objectProvider, ExternalEntityWriter
+				.getTrackedColumnsKey(fieldNumber), new HashSet<Bytes>());
+	}
+
 	@Override
 	public void storeShortField(int fieldNumber, short value) {
 		try {
 			mutator.writeColumn(columnFamily, key, mutator.newColumn(
-					getColumnName(metaData, fieldNumber),
+					plan.getColumnName(fieldNumber),
 					byteContext.getBytes(value)));
 
 		} catch (Exception e) {
@@ -184,13 +249,11 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 	public void storeObjectField(int fieldNumber, Object value) {
 		try {
 
-			Bytes columnName = getColumnName(metaData, fieldNumber);
+			Bytes columnName = plan.getColumnName(fieldNumber);
 
-			ClassLoaderResolver clr = context.getClassLoaderResolver();
-			AbstractMemberMetaData fieldMetaData = metaData
-					.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
+			AbstractMemberMetaData fieldMetaData = plan.getMember(fieldNumber);
 
-			int relationType = fieldMetaData.getRelationType(clr);
+			int relationType = plan.getRelationType(fieldNumber);
 
 			// check if this is a relationship
 
@@ -233,14 +296,25 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 					|| relationType == Relation.ONE_TO_MANY_UNI) {
 				// Collection/Map/Array
 
+				// a lazy relationship of this field has written its own
+				// changes
+				if (value instanceof LazyLoaded
+						&& ((LazyLoaded) value).isOwnedBy(objectProvider,
+								fieldNumber)) {
+					return;
+				}
+
+				RelationLocation location = RelationLocation.forField(
+						fieldMetaData, columnFamily, key, columnName);
+
 				if (fieldMetaData.hasCollection()) {
 
 					WriteCollection collectionWriter = new WriteCollection(
-							selector, byteContext, columnFamily, key,
-							columnName);
+							selector, byteContext, location.getColumnFamily(),
+							location.getRowKey(), location.getColumn());
 
 					if (value == null) {
-						collectionWriter.removeAllColumns(mutator);
+						removeAll(collectionWriter, location, fieldNumber);
 						return;
 					}
 
@@ -258,8 +332,7 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 						collectionWriter.writeRelationship(mutator, objectPk);
 					}
 
-					// TODO remove this when SCO is working
-					collectionWriter.removeRemaining(mutator);
+					removeRemaining(collectionWriter, fieldNumber);
 
 					objectProvider.wrapSCOField(fieldNumber, value, true, true,
 							true);
@@ -269,10 +342,11 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 				} else if (fieldMetaData.hasMap()) {
 
 					WriteMap mapWriter = new WriteMap(selector, byteContext,
-							columnFamily, key, columnName);
+							location.getColumnFamily(), location.getRowKey(),
+							location.getColumn());
 
 					if (value == null) {
-						mapWriter.removeAllColumns(mutator);
+						removeAll(mapWriter, location, fieldNumber);
 						return;
 					}
 
@@ -326,11 +400,10 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 						mapWriter.writeRelationship(mutator, serializedKey,
 								serializedValue);
 
-						// TODO remove this when SCO is working
-						mapWriter.removeRemaining(mutator);
-
 					}
 
+					removeRemaining(mapWriter, fieldNumber);
+
 					objectProvider.wrapSCOField(fieldNumber, value, true, true,
 							true);
 
@@ -342,10 +415,11 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 					Object objectPk = null;
 
 					WriteMap mapWriter = new WriteMap(selector, byteContext,
-							columnFamily, key, columnName);
+							location.getColumnFamily(), location.getRowKey(),
+							location.getColumn());
 
 					if (value == null) {
-						mapWriter.removeAllColumns(mutator);
+						removeAll(mapWriter, location, fieldNumber);
 						return;
 					}
 
@@ -362,8 +436,7 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 						mapWriter.writeRelationship(mutator, i, objectPk);
 					}
 
-					// TODO remove this when SCO is working
-					mapWriter.removeRemaining(mutator);
+					removeRemaining(mapWriter, fieldNumber);
 				}
 
 				objectProvider.wrapSCOField(fieldNumber, value, true, true,
@@ -393,12 +466,12 @@ public class CassandraInsertFieldManager extends AbstractFieldManager {
 
 			if (value == null) {
 				mutator.deleteColumn(columnFamily, key,
-						getColumnName(metaData, fieldNumber));
+						plan.getColumnName(fieldNumber));
 				return;
 			}
 
 			mutator.writeColumn(columnFamily, key, mutator.newColumn(
-					getColumnName(metaData, fieldNumber),
+					plan.getColumnName(fieldNumber),
 					byteContext.getBytes(value)));
 
 		} catch (Exception e) {
@@ -18,6 +18,7 @@ Contributors : Pedro Gomes and Universidade do Minho.
 package com.spidertracks.datanucleus;
 
 import static com.spidertracks.datanucleus.utils.MetaDataUtils.getColumnFamily;
+import static com.spidertracks.datanucleus.utils.MetaDataUtils.getColumnName;
 import static com.spidertracks.datanucleus.utils.MetaDataUtils.getDiscriminatorColumnName;
 import static com.spidertracks.datanucleus.utils.MetaDataUtils.getFetchColumnList;
 
@@ -27,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.SlicePredicate;
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.api.ApiAdapter;
 import org.datanucleus.exceptions.NucleusDataStoreException;
@@ -40,14 +42,17 @@ import org.datanucleus.store.AbstractPersistenceHandler;
 import org.datanucleus.store.ExecutionContext;
 import org.datanucleus.store.ObjectProvider;
 import org.scale7.cassandra.pelops.Bytes;
-import org.scale7.cassandra.pelops.Mutator;
 import org.scale7.cassandra.pelops.Pelops;
 import org.scale7.cassandra.pelops.Selector;
 
+import com.spidertracks.datanucleus.cache.RowCacheManager;
 import com.spidertracks.datanucleus.client.Consistency;
+import com.spidertracks.datanucleus.collection.RelationLocation;
 import com.spidertracks.datanucleus.convert.ByteConverterContext;
 import com.spidertracks.datanucleus.mutate.BatchMutationManager;
 import com.spidertracks.datanucleus.mutate.ExecutionContextDelete;
+import com.spidertracks.datanucleus.mutate.ExecutionContextMutate;
+import com.spidertracks.datanucleus.mutate.MutationBatch;
 
 /**
  * Persistence handler for our DN plugin
@@ -60,11 +65,13 @@ public class CassandraPersistenceHandler extends AbstractPersistenceHandler {
 	private CassandraStoreManager manager;
 	private BatchMutationManager batchManager;
 	private ByteConverterContext byteContext;
+	private RowCacheManager rowCache;
 
 	public CassandraPersistenceHandler(CassandraStoreManager manager) {
 		this.manager = manager;
 		this.batchManager = new BatchMutationManager(manager);
 		this.byteContext = manager.getByteConverterContext();
+		this.rowCache = manager.getRowCacheManager();
 	}
 
 	@Override
@@ -72,6 +79,14 @@ public class CassandraPersistenceHandler extends AbstractPersistenceHandler {
 
 	}
 
+	/**
+	 * @return the manager of the pending writes and deletes of each execution
+	 *         context
+	 */
+	public BatchMutationManager getBatchManager() {
+		return batchManager;
+	}
+
 	@Override
 	public void deleteObject(ObjectProvider op) {
 
@@ -81,6 +96,8 @@ public class CassandraPersistenceHandler extends AbstractPersistenceHandler {
 
 		ExecutionContext ec = op.getExecutionContext();
 
+		rowCache.invalidate(columnFamily, key);
+
 		ExecutionContextDelete delete = this.batchManager.beginDelete(ec, op);
 
 		// we've already visited this object, do nothing
@@ -93,6 +110,33 @@ public class CassandraPersistenceHandler extends AbstractPersistenceHandler {
 
 		int[] fields = metaData.getAllMemberPositions();
 
+		// relationships stored in their own rows are deleted with us
+		String relationsCf = RelationLocation.getRelationsColumnFamily(
+				metaData, columnFamily);
+
+		if (relationsCf != null) {
+			delete.addRowDeletion(key, relationsCf);
+		}
+
+		for (int current : fields) {
+			AbstractMemberMetaData fieldMetaData = metaData
+					.getMetaDataForManagedMemberAtAbsolutePosition(current);
+
+			if (!fieldMetaData.hasCollection() && !fieldMetaData.hasMap()
+					&& !fieldMetaData.hasArray()) {
+				continue;
+			}
+
+			RelationLocation location = RelationLocation.forField(
+					fieldMetaData, columnFamily, key,
+					getColumnName(metaData, current));
+
+			if (location.isDedicatedRow()) {
+				delete.addRowDeletion(location.getRowKey(),
+						location.getColumnFamily());
+			}
+		}
+
 		for (int current : fields) {
 			AbstractMemberMetaData fieldMetaData = metaData
 					.getMetaDataForManagedMemberAtAbsolutePosition(current);
@@ -197,8 +241,24 @@ public class CassandraPersistenceHandler extends AbstractPersistenceHandler {
 
 		Selector selector = Pelops.createSelector(manager.getPoolName());
 
-		List<Column> columns = selector.getColumnsFromRow(columnFamily, key,
-				getFetchColumnList(metaData, fieldNumbers), Consistency.get());
+		SlicePredicate predicate = getFetchColumnList(metaData, fieldNumbers);
+
+		List<Column> columns = rowCache.get(metaData, columnFamily, key,
+				predicate);
+
+		if (columns == null) {
+			// a write that lands during the read bumps the version
+			long version = rowCache.getVersion(columnFamily, key);
+
+			columns = selector.getColumnsFromRow(columnFamily, key, predicate,
+					Consistency.get());
+
+			// don't cache missing rows, they may be inserted at any time
+			if (columns != null && columns.size() > 0) {
+				rowCache.put(metaData, columnFamily, key, predicate, columns,
+						version);
+			}
+		}
 
 		// nothing to do
 		if (columns == null || columns.size() == 0) {
@@ -247,8 +307,9 @@ public class CassandraPersistenceHandler extends AbstractPersistenceHandler {
 
 	@Override
 	public void insertObject(ObjectProvider op) {
-		// just delegate to update. They both perform the same logic
-		updateObject(op, op.getClassMetaData().getAllMemberPositions());
+		// the only full row write, every field and the discriminator are
+		// persisted
+		writeObject(op, op.getClassMetaData().getAllMemberPositions(), true);
 
 	}
 
@@ -260,28 +321,49 @@ public class CassandraPersistenceHandler extends AbstractPersistenceHandler {
 
 	@Override
 	public void updateObject(ObjectProvider op, int[] fieldNumbers) {
+		// only write the dirty fields we've been given
+		writeObject(op, fieldNumbers, false);
+	}
+
+	/**
+	 * Write the given fields of the object to its row. The discriminator is
+	 * only written when the object is inserted since it can never change
+	 * afterwards
+	 * 
+	 * @param op
+	 * @param fieldNumbers
+	 *            The absolute field numbers to write
+	 * @param insert
+	 *            True if this is the initial write of the object
+	 */
+	private void writeObject(ObjectProvider op, int[] fieldNumbers,
+			boolean insert) {
 		this.manager.assertReadOnlyForUpdateOfObject(op);
 
 		AbstractClassMetaData metaData = op.getClassMetaData();
 
 		ExecutionContext ec = op.getExecutionContext();
 
+		Bytes key = byteContext.getRowKey(op);
+		String columnFamily = getColumnFamily(metaData);
+
+		rowCache.invalidate(columnFamily, key);
+
 		// signal a write is about to start
-		Mutator mutator = this.batchManager.beginWrite(ec).getMutator();
-		Selector selector = Pelops.createSelector(manager.getPoolName());
+		ExecutionContextMutate mutate = this.batchManager.beginWrite(ec);
+		mutate.addRow(columnFamily, key);
 
+		Selector selector = Pelops.createSelector(manager.getPoolName());
 
-		Bytes key = byteContext.getRowKey(op);
-		String columnFamily = getColumnFamily(metaData);
 
 		// Write our all our primary object data
 		CassandraInsertFieldManager manager = new CassandraInsertFieldManager(
-				selector, mutator, op, columnFamily, key);
+				selector, mutate, op, columnFamily, key, insert);
 
-		op.provideFields(metaData.getAllMemberPositions(), manager);
+		op.provideFields(fieldNumbers, manager);
 
 		// if we have a discriminator, write the value
-		if (metaData.hasDiscriminatorStrategy()) {
+		if (insert && metaData.hasDiscriminatorStrategy()) {
 			DiscriminatorMetaData discriminator = metaData
 					.getDiscriminatorMetaData();
 
@@ -291,6 +373,8 @@ public class CassandraPersistenceHandler extends AbstractPersistenceHandler {
 			
 			Bytes byteValue = byteContext.getBytes(value);
 			
+			MutationBatch mutator = mutate.getMutator();
+
 			mutator.writeColumn(columnFamily, key, mutator.newColumn(colName, byteValue));
 		}
 
@@ -307,4 +391,4 @@ public class CassandraPersistenceHandler extends AbstractPersistenceHandler {
 
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
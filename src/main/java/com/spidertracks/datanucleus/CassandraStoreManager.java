@@ -25,6 +25,12 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.cassandra.thrift.Column;
 import org.apache.cassandra.thrift.SlicePredicate;
@@ -41,8 +47,11 @@ import org.scale7.cassandra.pelops.Bytes;
 import org.scale7.cassandra.pelops.Pelops;
 import org.scale7.cassandra.pelops.Selector;
 
+import com.spidertracks.datanucleus.cache.RowCacheManager;
 import com.spidertracks.datanucleus.client.Consistency;
 import com.spidertracks.datanucleus.convert.ByteConverterContext;
+import com.spidertracks.datanucleus.mutate.WriteBehindQueue;
+import com.spidertracks.datanucleus.query.QueryPlanCache;
 import com.spidertracks.datanucleus.serialization.JavaSerializer;
 import com.spidertracks.datanucleus.serialization.Serializer;
 
@@ -58,6 +67,16 @@ public class CassandraStoreManager extends AbstractStoreManager {
 	private static final String SERIALIZER = "com.spidertracks.cassandra.serializer";
 	private static final String BYTEMAPPER = "com.spidertracks.cassandra.bytemapper";
 	private static final String CHECKSLEEPTIME = "com.spidertracks.cassandra.checksleep";
+	private static final String MULTIGETSIZE = "com.spidertracks.cassandra.multigetsize";
+	private static final String SCANPAGESIZE = "com.spidertracks.cassandra.scanpagesize";
+	private static final String QUERYTHREADS = "com.spidertracks.cassandra.querythreads";
+	private static final String PLANCACHESIZE = "com.spidertracks.cassandra.plancachesize";
+	private static final String LAZY_COLLECTIONS = "com.spidertracks.cassandra.collections.lazy";
+	private static final String TRANSACTIONAL_BATCH = "com.spidertracks.cassandra.batch.transactional";
+	private static final String BATCH_SIZE = "com.spidertracks.cassandra.batch.size";
+	private static final String WRITE_BEHIND = "com.spidertracks.cassandra.writebehind";
+	private static final String WRITE_BEHIND_THREADS = "com.spidertracks.cassandra.writebehind.threads";
+	private static final String WRITE_BEHIND_QUEUE = "com.spidertracks.cassandra.writebehind.queuesize";
 	
 	
 	private boolean autoCreateSchema = false;
@@ -67,6 +86,19 @@ public class CassandraStoreManager extends AbstractStoreManager {
 	private int poolTimeBetweenEvictionRunsMillis;
 	private int poolMinEvictableIdleTimeMillis;
 	private long checkSleepTime;
+	private int multigetSize;
+	private int scanPageSize;
+	private boolean lazyCollections;
+	private boolean transactionalBatch;
+	private int batchSize;
+
+	private ExecutorService queryExecutor;
+
+	private QueryPlanCache queryPlanCache;
+
+	private RowCacheManager rowCacheManager;
+
+	private WriteBehindQueue writeBehindQueue;
 
 	private ConnectionFactoryImpl connectionFactory;
 
@@ -113,6 +145,70 @@ public class CassandraStoreManager extends AbstractStoreManager {
 		
 		checkSleepTime = conf.getLongProperty(CHECKSLEEPTIME);
 		
+		// how many rows to request in a single multiget
+		multigetSize = conf.getIntProperty(MULTIGETSIZE);
+
+		if (multigetSize <= 0) {
+			multigetSize = 100;
+		}
+
+		// how many rows to read per page when scanning a column family
+		scanPageSize = conf.getIntProperty(SCANPAGESIZE);
+
+		if (scanPageSize <= 0) {
+			scanPageSize = 1000;
+		}
+
+		// how many secondary index reads a query may run at once
+		int queryThreads = conf.getIntProperty(QUERYTHREADS);
+
+		if (queryThreads <= 0) {
+			queryThreads = Runtime.getRuntime().availableProcessors() * 2;
+		}
+
+		queryExecutor = createQueryExecutor(queryThreads);
+
+		// how many query plans to keep, negative disables the cache
+		int planCacheSize = conf.getIntProperty(PLANCACHESIZE);
+
+		if (planCacheSize == 0) {
+			planCacheSize = 500;
+		}
+
+		queryPlanCache = new QueryPlanCache(planCacheSize);
+
+		// rows read by fetchObject, disabled unless a size is set
+		rowCacheManager = new RowCacheManager(conf);
+
+		lazyCollections = conf.getBooleanProperty(LAZY_COLLECTIONS);
+
+		// hold writes until the transaction commits or flushes
+		transactionalBatch = conf.getBooleanProperty(TRANSACTIONAL_BATCH);
+
+		// the number of rows to send in a single batch_mutate
+		batchSize = conf.getIntProperty(BATCH_SIZE);
+
+		if (batchSize <= 0) {
+			batchSize = 500;
+		}
+
+		// send writes on background threads
+		if (conf.getBooleanProperty(WRITE_BEHIND)) {
+			int writeThreads = conf.getIntProperty(WRITE_BEHIND_THREADS);
+
+			if (writeThreads <= 0) {
+				writeThreads = 2;
+			}
+
+			int writeQueueSize = conf.getIntProperty(WRITE_BEHIND_QUEUE);
+
+			if (writeQueueSize <= 0) {
+				writeQueueSize = 100;
+			}
+
+			writeBehindQueue = new WriteBehindQueue(writeThreads,
+					writeQueueSize, batchSize, rowCacheManager);
+		}
 		
 
 		if (autoCreateSchema) {
@@ -169,9 +265,47 @@ public class CassandraStoreManager extends AbstractStoreManager {
 	 */
 	public void close() {
 		// omfContext.getMetaDataManager().deregisterListener(metadataListener);
+		queryExecutor.shutdown();
+
+		if (writeBehindQueue != null) {
+			writeBehindQueue.shutdown();
+		}
+
 		super.close();
 	}
 
+	/**
+	 * Create the pool used to run the branches of a query concurrently. The
+	 * queue is bounded, once it is full the querying thread runs the read
+	 * itself
+	 * 
+	 * @param threads
+	 * @return
+	 */
+	private ExecutorService createQueryExecutor(int threads) {
+		ThreadFactory factory = new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "cassandra-query-"
+						+ count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+				60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+						threads * 4), factory,
+				new ThreadPoolExecutor.CallerRunsPolicy());
+
+		executor.allowCoreThreadTimeOut(true);
+
+		return executor;
+	}
+
 	public NucleusConnection getNucleusConnection(ExecutionContext om) {
 		throw new UnsupportedOperationException();
 	}
@@ -227,6 +361,75 @@ public class CassandraStoreManager extends AbstractStoreManager {
 		return checkSleepTime;
 	}
 
+	/**
+	 * @return the maximum number of rows to read in a single multiget
+	 */
+	public int getMultigetSize() {
+		return multigetSize;
+	}
+
+	/**
+	 * @return the number of rows to read per page when scanning a column
+	 *         family
+	 */
+	public int getScanPageSize() {
+		return scanPageSize;
+	}
+
+	/**
+	 * @return the executor used to run the secondary index reads of a query
+	 *         concurrently
+	 */
+	public ExecutorService getQueryExecutor() {
+		return queryExecutor;
+	}
+
+	/**
+	 * @return the cache of query plans
+	 */
+	public QueryPlanCache getQueryPlanCache() {
+		return queryPlanCache;
+	}
+
+	/**
+	 * @return the cache of rows read by fetchObject. Holds the hit, miss and
+	 *         eviction counts
+	 */
+	public RowCacheManager getRowCacheManager() {
+		return rowCacheManager;
+	}
+
+	/**
+	 * @return true if collection and map fields should be loaded lazily
+	 *         unless the field says otherwise
+	 */
+	public boolean isLazyCollections() {
+		return lazyCollections;
+	}
+
+	/**
+	 * @return true if writes in an active transaction are held until it
+	 *         commits or flushes
+	 */
+	public boolean isTransactionalBatch() {
+		return transactionalBatch;
+	}
+
+	/**
+	 * @return the maximum number of rows to send in a single batch_mutate
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return the queue that sends writes in the background, or null if
+	 *         writes are sent by the writing thread
+	 */
+	public WriteBehindQueue getWriteBehindQueue() {
+		return writeBehindQueue;
+	}
+
 
 
 	/**
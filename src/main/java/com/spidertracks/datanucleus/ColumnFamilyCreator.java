@@ -20,6 +20,7 @@ import org.scale7.cassandra.pelops.ColumnFamilyManager;
 import org.scale7.cassandra.pelops.KeyspaceManager;
 import org.scale7.cassandra.pelops.Pelops;
 
+import com.spidertracks.datanucleus.collection.RelationLocation;
 import com.spidertracks.datanucleus.convert.ByteConverterContext;
 import com.spidertracks.datanucleus.utils.ClusterUtils;
 import com.spidertracks.datanucleus.utils.MetaDataUtils;
@@ -81,8 +82,17 @@ public class ColumnFamilyCreator implements MetaDataListener {
 
 			boolean schemaChanged = false;
 			
+			String relationsCfName = RelationLocation.getRelationsColumnFamily(
+					cmd, cfName);
+
 			if (createColumnFamilies) {
 				schemaChanged = createColumnFamily(migrationCluster, cfName);
+
+				// relationship columns stored outside the entity rows
+				if (relationsCfName != null) {
+					schemaChanged |= createColumnFamily(migrationCluster,
+							relationsCfName);
+				}
 			}
 			
 			if(createColumns){
@@ -113,6 +123,10 @@ public class ColumnFamilyCreator implements MetaDataListener {
 			if(schemaChanged){
 				for(Node node: cluster.getNodes()){
 					validateNode(node, cmd, cfName);
+
+					if (relationsCfName != null) {
+						validateColumnFamily(node, relationsCfName);
+					}
 				}
 			}
 			
@@ -164,6 +178,25 @@ public class ColumnFamilyCreator implements MetaDataListener {
 			
 			
 		
+	}
+
+	/**
+	 * Blocks until the column family exists on the node
+	 * 
+	 * @param node
+	 * @param cfName
+	 */
+	private void validateColumnFamily(Node node, String cfName) {
+
+		Cluster validationCluster = ClusterUtils.getClusterForNode(node);
+
+		while (getCf(validationCluster, cfName) == null) {
+			try {
+				Thread.sleep(storeManager.getCheckSleepTime());
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
 	}
 
 	/**
@@ -0,0 +1,260 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.cassandra.thrift.Column;
+import org.scale7.cassandra.pelops.Bytes;
+
+/**
+ * A size bounded LRU cache of the columns read from the rows of a single
+ * column family. Each row remembers which column names have been read, so a
+ * read is only served from the cache if every requested column has been read
+ * before. Rows expire after the time to live they were cached with.
+ * 
+ * Every invalidate bumps the version of the row key. A read takes the version
+ * before it goes to cassandra and only caches what it read if the version
+ * hasn't changed, so a row written while it was being read isn't cached with
+ * the old columns. Versions are kept for a fixed number of key hashes, so an
+ * unrelated key with the same hash only costs a read that isn't cached.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class RowCache {
+
+	/**
+	 * The number of row versions kept. Must be a power of 2
+	 */
+	private static final int VERSIONS = 1024;
+
+	private final AtomicLongArray versions = new AtomicLongArray(VERSIONS);
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private final LinkedHashMap<Bytes, CachedRow> rows;
+
+	/**
+	 * 
+	 * @param maxSize
+	 *            The maximum number of rows to hold
+	 */
+	public RowCache(final int maxSize) {
+		// access ordered, so the eldest entry is the least recently used
+		this.rows = new LinkedHashMap<Bytes, CachedRow>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<Bytes, CachedRow> eldest) {
+				if (size() > maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+
+				return false;
+			}
+
+		};
+	}
+
+	/**
+	 * Get the requested columns of the row.
+	 * 
+	 * @param key
+	 * @param columnNames
+	 * @return The columns of the row that exist, or null if any of the
+	 *         columns haven't been read or the row has expired
+	 */
+	public synchronized List<Column> get(Bytes key, List<ByteBuffer> columnNames) {
+		CachedRow row = rows.get(key);
+
+		if (row == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		if (row.expires < System.currentTimeMillis()) {
+			rows.remove(key);
+			misses.incrementAndGet();
+			return null;
+		}
+
+		List<Column> columns = new ArrayList<Column>(columnNames.size());
+
+		for (ByteBuffer name : columnNames) {
+			Bytes columnName = Bytes.fromByteBuffer(name);
+
+			if (!row.read.contains(columnName)) {
+				misses.incrementAndGet();
+				return null;
+			}
+
+			Column column = row.columns.get(columnName);
+
+			if (column != null) {
+				columns.add(column);
+			}
+		}
+
+		hits.incrementAndGet();
+
+		return columns;
+	}
+
+	/**
+	 * Get the version of the row. Take it before reading the row from
+	 * cassandra and pass it to put
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public long getVersion(Bytes key) {
+		return versions.get(versionIndex(key));
+	}
+
+	/**
+	 * Cache the columns read from the row. If the row is already cached the
+	 * columns are added to it. Nothing is cached if the row was invalidated
+	 * since the version was taken
+	 * 
+	 * @param key
+	 * @param columnNames
+	 *            The names of the columns that were requested
+	 * @param columns
+	 *            The columns returned by cassandra
+	 * @param ttl
+	 *            How long in millis the row may be cached for
+	 * @param version
+	 *            The version of the row before it was read
+	 */
+	public synchronized void put(Bytes key, List<ByteBuffer> columnNames,
+			List<Column> columns, long ttl, long version) {
+
+		// written while we were reading, what we read may be stale
+		if (versions.get(versionIndex(key)) != version) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+
+		CachedRow row = rows.get(key);
+
+		if (row == null || row.expires < now) {
+			row = new CachedRow(now + ttl);
+			rows.put(key, row);
+		}
+
+		for (ByteBuffer name : columnNames) {
+			row.read.add(Bytes.fromByteBuffer(name));
+		}
+
+		for (Column column : columns) {
+			// copy the column, thrift objects aren't safe to share
+			Column copy = new Column(column);
+			row.columns.put(Bytes.fromBytes(copy.getName()), copy);
+		}
+	}
+
+	/**
+	 * Remove the row from the cache
+	 * 
+	 * @param key
+	 */
+	public synchronized void invalidate(Bytes key) {
+		versions.incrementAndGet(versionIndex(key));
+		rows.remove(key);
+	}
+
+	/**
+	 * Remove every row from the cache
+	 */
+	public synchronized void clear() {
+		rows.clear();
+	}
+
+	/**
+	 * @return The number of rows cached
+	 */
+	public synchronized int size() {
+		return rows.size();
+	}
+
+	/**
+	 * @return The number of reads served from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of reads that had to go to cassandra
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of rows removed to make room for others
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Get the index of the version of the key
+	 * 
+	 * @param key
+	 * @return
+	 */
+	private int versionIndex(Bytes key) {
+		int hash = key.hashCode();
+
+		// spread the high bits, as HashMap does
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+
+		return hash & (VERSIONS - 1);
+	}
+
+	/**
+	 * The columns read from a row
+	 */
+	private static class CachedRow {
+		private final long expires;
+		private final Set<Bytes> read = new HashSet<Bytes>();
+		private final Map<Bytes, Column> columns = new HashMap<Bytes, Column>();
+
+		private CachedRow(long expires) {
+			this.expires = expires;
+		}
+	}
+}
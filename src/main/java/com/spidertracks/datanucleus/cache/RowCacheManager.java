@@ -0,0 +1,246 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.cache;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.datanucleus.PersistenceConfiguration;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.scale7.cassandra.pelops.Bytes;
+
+/**
+ * Holds a {@link RowCache} for every column family. The cache is disabled
+ * unless a size is configured. Configured with the following properties
+ * 
+ * <ul>
+ * <li>com.spidertracks.cassandra.rowcache.size - The maximum number of rows
+ * to cache per column family</li>
+ * <li>com.spidertracks.cassandra.rowcache.ttl - How long in millis a row may
+ * be cached for. Defaults to 60 seconds</li>
+ * <li>com.spidertracks.cassandra.rowcache.ttl.&lt;class name&gt; - The time
+ * to live for a single class. 0 disables caching for the class</li>
+ * </ul>
+ * 
+ * Rows are invalidated when they're written or deleted through this JVM.
+ * Writes from other JVMs are only seen once the row expires.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class RowCacheManager {
+
+	private static final String SIZE = "com.spidertracks.cassandra.rowcache.size";
+	private static final String TTL = "com.spidertracks.cassandra.rowcache.ttl";
+
+	private static final long DEFAULT_TTL = 60 * 1000;
+
+	private final ConcurrentMap<String, RowCache> caches = new ConcurrentHashMap<String, RowCache>();
+
+	private final ConcurrentMap<String, Long> classTtls = new ConcurrentHashMap<String, Long>();
+
+	private final PersistenceConfiguration conf;
+
+	private final int size;
+
+	private final long ttl;
+
+	public RowCacheManager(PersistenceConfiguration conf) {
+		this.conf = conf;
+		this.size = conf.getIntProperty(SIZE);
+
+		String defaultTtl = conf.getStringProperty(TTL);
+
+		this.ttl = defaultTtl == null ? DEFAULT_TTL : Long.parseLong(defaultTtl);
+	}
+
+	/**
+	 * @return True if rows should be cached
+	 */
+	public boolean isEnabled() {
+		return size > 0;
+	}
+
+	/**
+	 * Get the cached columns for the row
+	 * 
+	 * @param metaData
+	 *            The class being read
+	 * @param columnFamily
+	 * @param key
+	 * @param predicate
+	 *            The columns to read
+	 * @return The columns, or null if they must be read from cassandra
+	 */
+	public List<Column> get(AbstractClassMetaData metaData,
+			String columnFamily, Bytes key, SlicePredicate predicate) {
+		if (!isEnabled() || getTtl(metaData) <= 0) {
+			return null;
+		}
+
+		return getRowCache(columnFamily).get(key, predicate.getColumn_names());
+	}
+
+	/**
+	 * Get the version of the row. Take it before reading the row from
+	 * cassandra and pass it to put
+	 * 
+	 * @param columnFamily
+	 * @param key
+	 * @return
+	 */
+	public long getVersion(String columnFamily, Bytes key) {
+		if (!isEnabled()) {
+			return 0;
+		}
+
+		return getRowCache(columnFamily).getVersion(key);
+	}
+
+	/**
+	 * Cache the columns read from the row, unless it was invalidated since
+	 * the version was taken
+	 * 
+	 * @param metaData
+	 *            The class being read
+	 * @param columnFamily
+	 * @param key
+	 * @param predicate
+	 *            The columns that were read
+	 * @param columns
+	 *            The columns returned by cassandra
+	 * @param version
+	 *            The version of the row before it was read
+	 */
+	public void put(AbstractClassMetaData metaData, String columnFamily,
+			Bytes key, SlicePredicate predicate, List<Column> columns,
+			long version) {
+		if (!isEnabled()) {
+			return;
+		}
+
+		long classTtl = getTtl(metaData);
+
+		if (classTtl <= 0) {
+			return;
+		}
+
+		getRowCache(columnFamily).put(key, predicate.getColumn_names(),
+				columns, classTtl, version);
+	}
+
+	/**
+	 * Remove the row from the cache
+	 * 
+	 * @param columnFamily
+	 * @param key
+	 */
+	public void invalidate(String columnFamily, Bytes key) {
+		RowCache cache = caches.get(columnFamily);
+
+		if (cache != null) {
+			cache.invalidate(key);
+		}
+	}
+
+	/**
+	 * Get the cache for the column family, creating it if it doesn't exist
+	 * 
+	 * @param columnFamily
+	 * @return
+	 */
+	public RowCache getRowCache(String columnFamily) {
+		RowCache cache = caches.get(columnFamily);
+
+		if (cache != null) {
+			return cache;
+		}
+
+		cache = new RowCache(size);
+
+		RowCache existing = caches.putIfAbsent(columnFamily, cache);
+
+		return existing == null ? cache : existing;
+	}
+
+	/**
+	 * @return The total number of reads served from the cache
+	 */
+	public long getHits() {
+		long hits = 0;
+
+		for (RowCache cache : caches.values()) {
+			hits += cache.getHits();
+		}
+
+		return hits;
+	}
+
+	/**
+	 * @return The total number of reads that went to cassandra
+	 */
+	public long getMisses() {
+		long misses = 0;
+
+		for (RowCache cache : caches.values()) {
+			misses += cache.getMisses();
+		}
+
+		return misses;
+	}
+
+	/**
+	 * @return The total number of rows evicted
+	 */
+	public long getEvictions() {
+		long evictions = 0;
+
+		for (RowCache cache : caches.values()) {
+			evictions += cache.getEvictions();
+		}
+
+		return evictions;
+	}
+
+	/**
+	 * Get the time to live for the class, falling back to the default
+	 * 
+	 * @param metaData
+	 * @return
+	 */
+	private long getTtl(AbstractClassMetaData metaData) {
+		String className = metaData.getFullClassName();
+
+		Long classTtl = classTtls.get(className);
+
+		if (classTtl != null) {
+			return classTtl;
+		}
+
+		String value = conf.getStringProperty(TTL + "." + className);
+
+		classTtl = value == null ? ttl : Long.parseLong(value);
+
+		classTtls.putIfAbsent(className, classTtl);
+
+		return classTtl;
+	}
+}
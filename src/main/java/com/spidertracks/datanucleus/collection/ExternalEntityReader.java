@@ -0,0 +1,186 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.collection;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+import org.scale7.cassandra.pelops.Bytes;
+import org.scale7.cassandra.pelops.Selector;
+
+import com.spidertracks.datanucleus.client.Consistency;
+import com.spidertracks.datanucleus.convert.ByteConverterContext;
+
+/**
+ * Iterates over the columns of an external entity one slice at a time. Each
+ * slice continues from the last column name read, so only a single page of
+ * columns is held in memory.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public abstract class ExternalEntityReader<T> extends ExternalEntity implements
+		Iterable<T>, Iterator<T> {
+
+	private int pageSize;
+
+	private int index = -1;
+
+	private List<Column> columns;
+
+	private boolean lastPage = false;
+
+	private Set<Bytes> readColumns;
+
+	/**
+	 * 
+	 * @param selector
+	 * @param context
+	 * @param ownerColumnFamily
+	 * @param rowKey
+	 * @param ownerColumn
+	 * @param pageSize
+	 *            The number of columns to read per slice
+	 */
+	public ExternalEntityReader(Selector selector,
+			ByteConverterContext context, String ownerColumnFamily,
+			Bytes rowKey, Bytes ownerColumn, int pageSize) {
+		super(selector, context, ownerColumnFamily, rowKey, ownerColumn);
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Record the name of every column read from now on
+	 * 
+	 * @return The set the column names are added to as they're read
+	 */
+	public Set<Bytes> trackColumns() {
+		if (readColumns == null) {
+			readColumns = new HashSet<Bytes>();
+		}
+
+		return readColumns;
+	}
+
+	/**
+	 * Convert the column to the element returned by the iterator
+	 * 
+	 * @param column
+	 * @return
+	 */
+	protected abstract T getElement(Column column);
+
+	/**
+	 * Get the part of the column name after the owner column and delimiter.
+	 * The column itself is not modified
+	 * 
+	 * @param column
+	 * @return
+	 */
+	protected ByteBuffer getElementName(Column column) {
+		ByteBuffer buffer = column.name.duplicate();
+		buffer.position(buffer.position() + ownerColumn.length() + 1);
+		return buffer;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return this;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (columns != null && index + 1 < columns.size()) {
+			return true;
+		}
+
+		if (lastPage) {
+			return false;
+		}
+
+		fetchPage();
+
+		return index + 1 < columns.size();
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException("No elements left");
+		}
+
+		Column column = columns.get(++index);
+
+		if (readColumns != null) {
+			readColumns.add(Bytes.fromByteBuffer(column.name.duplicate()));
+		}
+
+		return getElement(column);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("remove isn't supported");
+	}
+
+	/**
+	 * Read the next slice of columns. The first slice starts at the owner
+	 * column, every other slice starts just after the last column read
+	 */
+	private void fetchPage() {
+
+		byte[] start = ownerColumn.toByteArray();
+
+		if (columns != null && columns.size() > 0) {
+			start = columns.get(columns.size() - 1).getName();
+		}
+
+		SliceRange range = new SliceRange();
+		range.setStart(createBuffer(start, DELIM_MIN));
+		range.setFinish(createBuffer(ownerColumn.toByteArray(), DELIM_MAX));
+		range.setCount(pageSize);
+
+		SlicePredicate predicate = new SlicePredicate();
+
+		predicate.setSlice_range(range);
+
+		columns = selector.getColumnsFromRow(ownerColumnFamily, rowKey,
+				predicate, Consistency.get());
+
+		index = -1;
+
+		lastPage = columns.size() < pageSize;
+	}
+
+	private ByteBuffer createBuffer(byte[] columnBytes, byte delimByte) {
+		ByteBuffer buffer = ByteBuffer.allocate(columnBytes.length + 1);
+		buffer.put(columnBytes);
+		buffer.put(delimByte);
+		buffer.flip();
+
+		return buffer;
+	}
+
+}
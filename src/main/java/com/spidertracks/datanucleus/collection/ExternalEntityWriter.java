@@ -26,11 +26,11 @@ import org.apache.cassandra.thrift.Column;
 import org.apache.cassandra.thrift.SlicePredicate;
 import org.apache.cassandra.thrift.SliceRange;
 import org.scale7.cassandra.pelops.Bytes;
-import org.scale7.cassandra.pelops.Mutator;
 import org.scale7.cassandra.pelops.Selector;
 
 import com.spidertracks.datanucleus.client.Consistency;
 import com.spidertracks.datanucleus.convert.ByteConverterContext;
+import com.spidertracks.datanucleus.mutate.MutationBatch;
 
 /**
  * Class that allows us to perform basic I/O ops on external entities
@@ -42,6 +42,8 @@ public class ExternalEntityWriter extends ExternalEntity {
 
 	private static final int ITERATION_SIZE = 100;
 
+	private static final String TRACKED_COLUMNS = "com.spidertracks.cassandra.columns.";
+
 	private Set<Bytes> savedColumns;
 
 	public ExternalEntityWriter(Selector selector,
@@ -64,7 +66,7 @@ public class ExternalEntityWriter extends ExternalEntity {
 	 * Remove all columns from the collection/map. Useful for if a collection is
 	 * set to null
 	 */
-	public void removeAllColumns(Mutator mutator) {
+	public void removeAllColumns(MutationBatch mutator) {
 
 		byte[] columnBytes = ownerColumn.toByteArray();
 
@@ -100,9 +102,45 @@ public class ExternalEntityWriter extends ExternalEntity {
 	}
 
 	/**
-	 * Removes all columns that have not been marked as persisted.
+	 * Get the key the column names of a relationship field are stored under
+	 * in the associated values of the owner's ObjectProvider
+	 * 
+	 * @param fieldNumber
+	 * @return
+	 */
+	public static String getTrackedColumnsKey(int fieldNumber) {
+		return TRACKED_COLUMNS + fieldNumber;
+	}
+
+	/**
+	 * @return The names of the columns written by this writer
+	 */
+	public Set<Bytes> getSavedColumns() {
+		return savedColumns;
+	}
+
+	/**
+	 * Removes the columns known to exist that have not been marked as
+	 * persisted. Nothing is read, only the deletes are added to the mutator
+	 * 
+	 * @param mutator
+	 * @param existingColumns
+	 *            The names of the columns read or written previously
+	 */
+	public void removeRemaining(MutationBatch mutator, Set<Bytes> existingColumns) {
+		for (Bytes column : existingColumns) {
+			if (!savedColumns.contains(column)) {
+				mutator.deleteColumn(ownerColumnFamily, rowKey, column);
+			}
+		}
+	}
+
+	/**
+	 * Removes all columns that have not been marked as persisted. Reads every
+	 * column of the relationship, only use this when the existing columns
+	 * aren't known.
 	 */
-	public void removeRemaining(Mutator mutator) {
+	public void removeRemaining(MutationBatch mutator) {
 		byte[] columnBytes = ownerColumn.toByteArray();
 
 		SliceRange range = new SliceRange();
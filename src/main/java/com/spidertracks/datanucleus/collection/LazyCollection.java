@@ -0,0 +1,191 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.datanucleus.store.ObjectProvider;
+import org.scale7.cassandra.pelops.Bytes;
+import org.scale7.cassandra.pelops.Selector;
+
+import com.spidertracks.datanucleus.BatchObjectFetcher;
+import com.spidertracks.datanucleus.convert.ByteConverterContext;
+import com.spidertracks.datanucleus.mutate.MutationBatch;
+
+/**
+ * The operations of a lazy collection relationship. Elements are only loaded
+ * a page at a time while iterating, and a change only reads or writes the
+ * column of the element it affects.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class LazyCollection extends LazyRelation {
+
+	private Class<?> elementClass;
+
+	public LazyCollection(ObjectProvider owner, int fieldNumber,
+			Selector selector, ByteConverterContext context,
+			String ownerColumnFamily, Bytes rowKey, Bytes ownerColumn,
+			Class<?> elementClass, int pageSize) {
+		super(owner, fieldNumber, selector, context, ownerColumnFamily, rowKey,
+				ownerColumn, pageSize);
+		this.elementClass = elementClass;
+	}
+
+	/**
+	 * Count the elements the iterator returns. Elements that no longer exist
+	 * are not counted
+	 * 
+	 * @return
+	 */
+	public int size() {
+		int size = 0;
+
+		for (Iterator<Object> elements = iterator(); elements.hasNext(); elements
+				.next()) {
+			size++;
+		}
+
+		return size;
+	}
+
+	/**
+	 * @param element
+	 * @return True if the element has a column
+	 */
+	public boolean contains(Object element) {
+		Object id = getId(element);
+
+		if (id == null) {
+			return false;
+		}
+
+		return getColumn(id) != null;
+	}
+
+	/**
+	 * Iterate the elements, loading a page of them at a time with a multiget.
+	 * Elements that no longer exist are skipped
+	 * 
+	 * @return
+	 */
+	public Iterator<Object> iterator() {
+		return new Iterator<Object>() {
+
+			private ReadCollection ids = new ReadCollection(selector, context,
+					ownerColumnFamily, rowKey, ownerColumn, ec, elementClass,
+					pageSize);
+
+			private Iterator<Object> page = Collections.emptyList().iterator();
+
+			private Object last;
+
+			@Override
+			public boolean hasNext() {
+				while (!page.hasNext() && ids.hasNext()) {
+					List<Object> pageIds = new ArrayList<Object>();
+
+					while (pageIds.size() < pageSize && ids.hasNext()) {
+						pageIds.add(ids.next());
+					}
+
+					page = new BatchObjectFetcher(ec).fetchObjects(pageIds,
+							false).iterator();
+				}
+
+				return page.hasNext();
+			}
+
+			@Override
+			public Object next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				last = page.next();
+
+				return last;
+			}
+
+			@Override
+			public void remove() {
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+
+				LazyCollection.this.remove(last);
+
+				last = null;
+			}
+
+		};
+	}
+
+	/**
+	 * Persist the element if required and write its column
+	 * 
+	 * @param element
+	 */
+	public void add(Object element) {
+		MutationBatch mutator = beginWrite();
+
+		new WriteCollection(selector, context, ownerColumnFamily, rowKey,
+				ownerColumn).writeRelationship(mutator, persist(element));
+
+		endWrite();
+	}
+
+	/**
+	 * Delete the column of the element. The element itself is not deleted
+	 * 
+	 * @param element
+	 * @return True if the element had a column
+	 */
+	public boolean remove(Object element) {
+		Object id = getId(element);
+
+		if (id == null || getColumn(id) == null) {
+			return false;
+		}
+
+		MutationBatch mutator = beginWrite();
+
+		mutator.deleteColumn(ownerColumnFamily, rowKey, getColumnName(id));
+
+		endWrite();
+
+		return true;
+	}
+
+	/**
+	 * Delete every element column
+	 */
+	public void clear() {
+		MutationBatch mutator = beginWrite();
+
+		new WriteCollection(selector, context, ownerColumnFamily, rowKey,
+				ownerColumn).removeAllColumns(mutator);
+
+		endWrite();
+	}
+}
@@ -0,0 +1,210 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.collection;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.datanucleus.store.ObjectProvider;
+
+/**
+ * A list relationship that is loaded as it's used. Elements are stored in
+ * the order of their keys, so new elements can only be added, not inserted at
+ * a position. See {@link LazyCollection}
+ * 
+ * The elements read so far are kept, so walking the list by index only reads
+ * each page once. Adding or removing an element by value drops them, as its
+ * position isn't known.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class LazyList extends AbstractList<Object> implements LazyLoaded {
+
+	private LazyCollection collection;
+
+	// the elements read so far, in order
+	private List<Object> loaded = new ArrayList<Object>();
+
+	// reads the elements after the loaded ones, null once they're all read
+	private Iterator<Object> remaining;
+
+	public LazyList(LazyCollection collection) {
+		this.collection = collection;
+		this.remaining = collection.iterator();
+	}
+
+	/**
+	 * Reads up to the element, only the pages before it are loaded
+	 */
+	@Override
+	public Object get(int index) {
+		if (index < 0 || !load(index)) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+
+		return loaded.get(index);
+	}
+
+	@Override
+	public Iterator<Object> iterator() {
+		return new Iterator<Object>() {
+
+			private int next;
+
+			private boolean removable;
+
+			private int expectedModCount = modCount;
+
+			@Override
+			public boolean hasNext() {
+				checkModCount();
+
+				return load(next);
+			}
+
+			@Override
+			public Object next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				removable = true;
+
+				return loaded.get(next++);
+			}
+
+			@Override
+			public void remove() {
+				if (!removable) {
+					throw new IllegalStateException();
+				}
+
+				checkModCount();
+
+				LazyList.this.remove(--next);
+
+				removable = false;
+				expectedModCount = modCount;
+			}
+
+			private void checkModCount() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Reads every element that still exists
+	 */
+	@Override
+	public int size() {
+		load(Integer.MAX_VALUE);
+
+		return loaded.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return !load(0);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return collection.contains(o);
+	}
+
+	@Override
+	public boolean add(Object e) {
+		collection.add(e);
+
+		reset();
+
+		return true;
+	}
+
+	@Override
+	public Object remove(int index) {
+		Object element = get(index);
+
+		collection.remove(element);
+
+		// the elements after it are still in the same order
+		loaded.remove(index);
+		modCount++;
+
+		return element;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!collection.remove(o)) {
+			return false;
+		}
+
+		reset();
+
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		collection.clear();
+
+		reset();
+	}
+
+	@Override
+	public boolean isOwnedBy(ObjectProvider op, int fieldNumber) {
+		return collection.isOwnedBy(op, fieldNumber);
+	}
+
+	/**
+	 * Read elements until the one at index is loaded
+	 * 
+	 * @param index
+	 * @return True if the element at index exists
+	 */
+	private boolean load(int index) {
+		while (loaded.size() <= index && remaining != null) {
+			if (!remaining.hasNext()) {
+				remaining = null;
+				break;
+			}
+
+			loaded.add(remaining.next());
+		}
+
+		return index < loaded.size();
+	}
+
+	/**
+	 * Drop the loaded elements, they're read again when next used
+	 */
+	private void reset() {
+		loaded = new ArrayList<Object>();
+		remaining = collection.iterator();
+		modCount++;
+	}
+}
@@ -0,0 +1,38 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.collection;
+
+import org.datanucleus.store.ObjectProvider;
+
+/**
+ * A collection or map that reads its contents from cassandra as it's used
+ * and writes every change through as it's made. The owner doesn't need to
+ * rewrite it when the owning object is flushed.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public interface LazyLoaded {
+
+	/**
+	 * @param op
+	 * @param fieldNumber
+	 * @return True if this is the value of the field on the given object
+	 */
+	public boolean isOwnedBy(ObjectProvider op, int fieldNumber);
+}
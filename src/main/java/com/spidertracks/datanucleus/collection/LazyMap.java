@@ -0,0 +1,330 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.collection;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.cassandra.thrift.Column;
+import org.datanucleus.api.ApiAdapter;
+import org.datanucleus.store.ObjectProvider;
+
+import com.spidertracks.datanucleus.BatchObjectFetcher;
+import com.spidertracks.datanucleus.mutate.MutationBatch;
+
+/**
+ * A map relationship that is loaded as it's used. Reading or changing a
+ * single key only reads or writes the column for that key. Entries are loaded
+ * a page at a time while iterating.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class LazyMap extends AbstractMap<Object, Object> implements
+		LazyLoaded {
+
+	private LazyRelation relation;
+
+	private Class<?> keyClass;
+	private Class<?> valueClass;
+
+	private Class<?> storedKeyClass;
+	private Class<?> storedValueClass;
+
+	private boolean pcKey;
+	private boolean pcValue;
+
+	/**
+	 * 
+	 * @param relation
+	 *            The columns of the map
+	 * @param keyClass
+	 *            The class of the keys
+	 * @param valueClass
+	 *            The class of the values
+	 * @param storedKeyClass
+	 *            The class the keys are stored as, the identity class for
+	 *            persistent keys
+	 * @param storedValueClass
+	 *            The class the values are stored as, the identity class for
+	 *            persistent values
+	 */
+	public LazyMap(LazyRelation relation, Class<?> keyClass,
+			Class<?> valueClass, Class<?> storedKeyClass,
+			Class<?> storedValueClass) {
+		this.relation = relation;
+		this.keyClass = keyClass;
+		this.valueClass = valueClass;
+		this.storedKeyClass = storedKeyClass;
+		this.storedValueClass = storedValueClass;
+
+		ApiAdapter adapter = relation.ec.getApiAdapter();
+
+		this.pcKey = adapter.isPersistable(keyClass);
+		this.pcValue = adapter.isPersistable(valueClass);
+	}
+
+	/**
+	 * Reads every entry, entries whose persistent key or value no longer
+	 * exists are not counted
+	 */
+	@Override
+	public int size() {
+		int size = 0;
+
+		for (Iterator<Entry<Object, Object>> entries = new EntryIterator(); entries
+				.hasNext(); entries.next()) {
+			size++;
+		}
+
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return !entrySet().iterator().hasNext();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		Object storedKey = getStoredKey(key);
+
+		return storedKey != null && relation.getColumn(storedKey) != null;
+	}
+
+	@Override
+	public Object get(Object key) {
+		Object storedKey = getStoredKey(key);
+
+		if (storedKey == null) {
+			return null;
+		}
+
+		Column column = relation.getColumn(storedKey);
+
+		if (column == null) {
+			return null;
+		}
+
+		Object value = relation.context.getObject(column.value.duplicate(),
+				storedValueClass);
+
+		if (!pcValue) {
+			return value;
+		}
+
+		Object id = relation.ec.newObjectId(valueClass, value);
+
+		return new BatchObjectFetcher(relation.ec).fetchObjectMap(
+				Collections.singletonList(id), false).get(id);
+	}
+
+	@Override
+	public Object put(Object key, Object value) {
+		Object previous = get(key);
+
+		MutationBatch mutator = relation.beginWrite();
+
+		Object storedKey = pcKey ? relation.persist(key) : key;
+		Object storedValue = pcValue ? relation.persist(value) : value;
+
+		new WriteMap(relation.selector, relation.context,
+				relation.ownerColumnFamily, relation.rowKey,
+				relation.ownerColumn).writeRelationship(mutator, storedKey,
+				storedValue);
+
+		relation.endWrite();
+
+		return previous;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		Object storedKey = getStoredKey(key);
+
+		if (storedKey == null) {
+			return null;
+		}
+
+		Object previous = get(key);
+
+		MutationBatch mutator = relation.beginWrite();
+
+		mutator.deleteColumn(relation.ownerColumnFamily, relation.rowKey,
+				relation.getColumnName(storedKey));
+
+		relation.endWrite();
+
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		MutationBatch mutator = relation.beginWrite();
+
+		new WriteMap(relation.selector, relation.context,
+				relation.ownerColumnFamily, relation.rowKey,
+				relation.ownerColumn).removeAllColumns(mutator);
+
+		relation.endWrite();
+	}
+
+	@Override
+	public Set<Entry<Object, Object>> entrySet() {
+		return new AbstractSet<Entry<Object, Object>>() {
+
+			@Override
+			public Iterator<Entry<Object, Object>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return LazyMap.this.size();
+			}
+
+		};
+	}
+
+	@Override
+	public boolean isOwnedBy(ObjectProvider op, int fieldNumber) {
+		return relation.isOwnedBy(op, fieldNumber);
+	}
+
+	/**
+	 * Get the key as it's stored in the column name
+	 * 
+	 * @param key
+	 * @return The identity of a persistent key, or null if the key isn't
+	 *         persistent
+	 */
+	private Object getStoredKey(Object key) {
+		if (key == null) {
+			return null;
+		}
+
+		return pcKey ? relation.getId(key) : key;
+	}
+
+	/**
+	 * Iterates the entries a page at a time. Persistent keys and values of a
+	 * page are loaded with a single multiget
+	 */
+	private class EntryIterator implements Iterator<Entry<Object, Object>> {
+
+		private ReadMap columns = new ReadMap(relation.selector,
+				relation.context, relation.ownerColumnFamily, relation.rowKey,
+				relation.ownerColumn, storedKeyClass, storedValueClass,
+				relation.pageSize);
+
+		private Iterator<Entry<Object, Object>> page = Collections
+				.<Entry<Object, Object>> emptyList().iterator();
+
+		private Entry<Object, Object> last;
+
+		@Override
+		public boolean hasNext() {
+			while (!page.hasNext() && columns.hasNext()) {
+				page = loadPage().iterator();
+			}
+
+			return page.hasNext();
+		}
+
+		@Override
+		public Entry<Object, Object> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			last = page.next();
+
+			return last;
+		}
+
+		@Override
+		public void remove() {
+			if (last == null) {
+				throw new IllegalStateException();
+			}
+
+			LazyMap.this.remove(last.getKey());
+
+			last = null;
+		}
+
+		/**
+		 * Read the next page of entries and load their persistent keys and
+		 * values
+		 * 
+		 * @return
+		 */
+		private List<Entry<Object, Object>> loadPage() {
+			List<CassEntry> entries = new ArrayList<CassEntry>();
+			List<Object> ids = new ArrayList<Object>();
+
+			while (entries.size() < relation.pageSize && columns.hasNext()) {
+				CassEntry entry = columns.next();
+
+				if (pcKey) {
+					entry = new CassEntry(relation.ec.newObjectId(keyClass,
+							entry.getKey()), entry.getValue());
+					ids.add(entry.getKey());
+				}
+
+				if (pcValue) {
+					entry = new CassEntry(entry.getKey(),
+							relation.ec.newObjectId(valueClass,
+									entry.getValue()));
+					ids.add(entry.getValue());
+				}
+
+				entries.add(entry);
+			}
+
+			Map<Object, Object> loaded = new BatchObjectFetcher(relation.ec)
+					.fetchObjectMap(ids, false);
+
+			List<Entry<Object, Object>> results = new ArrayList<Entry<Object, Object>>(
+					entries.size());
+
+			for (CassEntry entry : entries) {
+				Object key = pcKey ? loaded.get(entry.getKey()) : entry
+						.getKey();
+				Object value = pcValue ? loaded.get(entry.getValue()) : entry
+						.getValue();
+
+				// skip entries that no longer exist
+				if (key == null || (pcValue && value == null)) {
+					continue;
+				}
+
+				results.add(new CassEntry(key, value));
+			}
+
+			return results;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.collection;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.cassandra.thrift.Column;
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.store.ExecutionContext;
+import org.datanucleus.store.ObjectProvider;
+import org.scale7.cassandra.pelops.Bytes;
+import org.scale7.cassandra.pelops.Selector;
+
+import com.spidertracks.datanucleus.CassandraPersistenceHandler;
+import com.spidertracks.datanucleus.CassandraStoreManager;
+import com.spidertracks.datanucleus.client.Consistency;
+import com.spidertracks.datanucleus.convert.ByteConverterContext;
+import com.spidertracks.datanucleus.mutate.BatchMutationManager;
+import com.spidertracks.datanucleus.mutate.ExecutionContextMutate;
+import com.spidertracks.datanucleus.mutate.MutationBatch;
+
+/**
+ * The columns of a single relationship field. Performs the targeted reads and
+ * single column writes used by the lazy collections and maps. Writes join
+ * the current {@link ExecutionContextMutate} of the execution context, and
+ * are executed with it.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class LazyRelation extends ExternalEntity {
+
+	protected ObjectProvider owner;
+
+	protected int fieldNumber;
+
+	protected ExecutionContext ec;
+
+	protected int pageSize;
+
+	private BatchMutationManager batchManager;
+
+	/**
+	 * 
+	 * @param owner
+	 *            The object that owns the field
+	 * @param fieldNumber
+	 *            The absolute field number of the relationship
+	 * @param selector
+	 * @param context
+	 * @param ownerColumnFamily
+	 * @param rowKey
+	 * @param ownerColumn
+	 * @param pageSize
+	 *            The number of columns to read per slice
+	 */
+	public LazyRelation(ObjectProvider owner, int fieldNumber,
+			Selector selector, ByteConverterContext context,
+			String ownerColumnFamily, Bytes rowKey, Bytes ownerColumn,
+			int pageSize) {
+		super(selector, context, ownerColumnFamily, rowKey, ownerColumn);
+		this.owner = owner;
+		this.fieldNumber = fieldNumber;
+		this.ec = owner.getExecutionContext();
+		this.pageSize = pageSize;
+
+		CassandraStoreManager manager = (CassandraStoreManager) ec
+				.getStoreManager();
+
+		this.batchManager = ((CassandraPersistenceHandler) manager
+				.getPersistenceHandler()).getBatchManager();
+	}
+
+	/**
+	 * @param op
+	 * @param fieldNumber
+	 * @return True if the relationship is the given field of the object
+	 */
+	public boolean isOwnedBy(ObjectProvider op, int fieldNumber) {
+		return owner == op && this.fieldNumber == fieldNumber;
+	}
+
+	/**
+	 * Get the name of the column that holds the given key
+	 * 
+	 * @param key
+	 *            The identity or value stored after the delimiter
+	 * @return
+	 */
+	protected Bytes getColumnName(Object key) {
+		byte[] keyBytes = context.getRowKeyForId(key).toByteArray();
+
+		ByteBuffer buffer = ByteBuffer.allocate(ownerColumn.length() + 1
+				+ keyBytes.length);
+		buffer.put(ownerColumn.toByteArray());
+		buffer.put(DELIM_MIN);
+		buffer.put(keyBytes);
+		buffer.flip();
+
+		return Bytes.fromByteBuffer(buffer);
+	}
+
+	/**
+	 * Read the single column that holds the key
+	 * 
+	 * @param key
+	 * @return The column or null if it doesn't exist
+	 */
+	protected Column getColumn(Object key) {
+		List<Column> columns = selector.getColumnsFromRow(ownerColumnFamily,
+				rowKey, Selector.newColumnsPredicate(getColumnName(key)),
+				Consistency.get());
+
+		return columns.size() == 0 ? null : columns.get(0);
+	}
+
+	/**
+	 * Get the identity of a persistent object
+	 * 
+	 * @param value
+	 * @return The identity, or null if the object isn't persistent
+	 */
+	protected Object getId(Object value) {
+		return ec.getApiAdapter().getIdForObject(value);
+	}
+
+	/**
+	 * Persist the object if required and return its identity
+	 * 
+	 * @param value
+	 * @return
+	 */
+	protected Object persist(Object value) {
+		Object persisted = ec.persistObjectInternal(value, owner, fieldNumber,
+				0);
+
+		return ec.getApiAdapter().getIdForObject(persisted);
+	}
+
+	/**
+	 * Signal a write to the owner's row is about to start
+	 * 
+	 * @return The mutator to write with
+	 */
+	protected MutationBatch beginWrite() {
+		ExecutionContextMutate mutate = batchManager.beginWrite(ec);
+		mutate.addRow(ownerColumnFamily, rowKey);
+		return mutate.getMutator();
+	}
+
+	/**
+	 * Signal the write has finished. Executes the mutation if this is the
+	 * outermost write of the execution context
+	 */
+	protected void endWrite() {
+		try {
+			batchManager.endWrite(ec);
+		} catch (NucleusException ne) {
+			throw ne;
+		} catch (Exception e) {
+			throw new NucleusDataStoreException(e.getMessage(), e);
+		}
+	}
+
+}
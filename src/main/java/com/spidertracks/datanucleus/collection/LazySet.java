@@ -0,0 +1,84 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.collection;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+
+import org.datanucleus.store.ObjectProvider;
+
+/**
+ * A set relationship that is loaded as it's used. See {@link LazyCollection}
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class LazySet extends AbstractSet<Object> implements LazyLoaded {
+
+	private LazyCollection collection;
+
+	public LazySet(LazyCollection collection) {
+		this.collection = collection;
+	}
+
+	@Override
+	public Iterator<Object> iterator() {
+		return collection.iterator();
+	}
+
+	@Override
+	public int size() {
+		return collection.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return !iterator().hasNext();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return collection.contains(o);
+	}
+
+	@Override
+	public boolean add(Object e) {
+		if (collection.contains(e)) {
+			return false;
+		}
+
+		collection.add(e);
+
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return collection.remove(o);
+	}
+
+	@Override
+	public void clear() {
+		collection.clear();
+	}
+
+	@Override
+	public boolean isOwnedBy(ObjectProvider op, int fieldNumber) {
+		return collection.isOwnedBy(op, fieldNumber);
+	}
+}
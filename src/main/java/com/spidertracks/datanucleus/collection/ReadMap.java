@@ -17,135 +17,44 @@ Contributors :
  ***********************************************************************/
 package com.spidertracks.datanucleus.collection;
 
-import java.nio.ByteBuffer;
-import java.util.Iterator;
-import java.util.List;
-import java.util.NoSuchElementException;
-
 import org.apache.cassandra.thrift.Column;
-import org.apache.cassandra.thrift.SlicePredicate;
-import org.apache.cassandra.thrift.SliceRange;
 import org.scale7.cassandra.pelops.Bytes;
 import org.scale7.cassandra.pelops.Selector;
 
-import com.spidertracks.datanucleus.client.Consistency;
 import com.spidertracks.datanucleus.convert.ByteConverterContext;
 
 /**
- * Object for writing collection columns
+ * Object for reading map columns
  * 
  * @author Todd Nine
  * 
  */
-public class ReadMap extends ExternalEntity implements Iterable<CassEntry>,
-		Iterator<CassEntry> {
+public class ReadMap extends ExternalEntityReader<CassEntry> {
 
 	private Class<?> keyClass;
 
 	private Class<?> valueClass;
 
-	private int index = -1;
-
-	private List<Column> columns;
-
-	public ReadMap(Selector selector, ByteConverterContext context, String ownerColumnFamily,
-			Bytes rowKey, Bytes ownerColumn, Class<?> keyClass,
-			Class<?> valueClass) {
-		super(selector, context, ownerColumnFamily, rowKey, ownerColumn);
+	public ReadMap(Selector selector, ByteConverterContext context,
+			String ownerColumnFamily, Bytes rowKey, Bytes ownerColumn,
+			Class<?> keyClass, Class<?> valueClass, int pageSize) {
+		super(selector, context, ownerColumnFamily, rowKey, ownerColumn,
+				pageSize);
 		this.keyClass = keyClass;
 		this.valueClass = valueClass;
 	}
 
 	/**
-	 * Get the slice predicate for selecting all the columns from the given
-	 * start key (inclusive). If the key is null, the range reads from the
-	 * beginning. Reads up to the max for the given column from start using
-	 * count.
-	 * 
-	 * @param count
-	 * @param startKey
-	 * @return
-	 */
-	public void fetchColumns(int count, Bytes startKey) {
-
-		SliceRange range = new SliceRange();
-
-		int length = ownerColumn.length() + 1;
-
-		if (startKey != null) {
-			length += startKey.length();
-		}
-
-		ByteBuffer startBuff = ByteBuffer.allocate(length);
-		startBuff.mark();
-		startBuff.put(ownerColumn.toByteArray());
-		startBuff.put(DELIM_MIN);
-
-		if (startKey != null) {
-			startBuff.put(startKey.toByteArray());
-		}
-
-		startBuff.reset();
-
-		range.setStart(startBuff);
-
-		ByteBuffer endBuff = ByteBuffer.allocate(ownerColumn.length() + 1);
-		endBuff.mark();
-		endBuff.put(ownerColumn.toByteArray());
-		endBuff.put(DELIM_MAX);
-		endBuff.reset();
-
-		range.setFinish(endBuff);
-		range.setCount(count);
-
-		SlicePredicate predicate = new SlicePredicate();
-
-		predicate.setSlice_range(range);
-
-		columns = selector.getColumnsFromRow(ownerColumnFamily, rowKey,
-				predicate, Consistency.get());
-
-	}
-
-	public int getColumnCount() {
-		return columns == null ? 0 : columns.size();
-	}
-
-	@Override
-	public Iterator<CassEntry> iterator() {
-		return this;
-	}
-
-	@Override
-	public boolean hasNext() {
-		return columns != null && index + 1 < columns.size();
-	}
-
-	/**
-	 * Returns the bytes as an object identity
+	 * Returns the key and value of the column
 	 */
 	@Override
-	public CassEntry next() {
-		if (++index > columns.size()) {
-			throw new NoSuchElementException("No elements left");
-		}
-
-		Column col = columns.get(index);
-
-		ByteBuffer buffer = col.name;
-		buffer.position(buffer.position() + ownerColumn.length() + 1);
+	protected CassEntry getElement(Column column) {
 
-		Object key = context.getObject(buffer, keyClass);
+		Object key = context.getObject(getElementName(column), keyClass);
 
-		Object value = context.getObject(col.value, valueClass);
+		Object value = context.getObject(column.value.duplicate(), valueClass);
 
 		return new CassEntry(key, value);
-
-	}
-
-	@Override
-	public void remove() {
-		throw new UnsupportedOperationException("remove isn't supported");
 	}
 
 }
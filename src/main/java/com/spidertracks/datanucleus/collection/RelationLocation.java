@@ -0,0 +1,187 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.collection;
+
+import java.nio.ByteBuffer;
+
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.scale7.cassandra.pelops.Bytes;
+
+/**
+ * Where the columns of a relationship field are stored. The storage is chosen
+ * per field with the cassandra.relation.storage extension
+ * 
+ * <ul>
+ * <li>owner - The default. Columns are stored in the owner's row, prefixed
+ * with the field's column name</li>
+ * <li>row - Columns are stored in a row of the owner's column family that
+ * only holds this relationship. Removing every element deletes the row
+ * without reading it</li>
+ * <li>cf - Columns are stored in a wide row of the &lt;owner column
+ * family&gt;Relations column family with the owner's row key, prefixed with
+ * the field's column name. The owner's row only holds its scalar fields, so
+ * reading them never touches the relationship columns</li>
+ * </ul>
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class RelationLocation {
+
+	public static final String STORAGE_EXTENSION = "cassandra.relation.storage";
+
+	public static final String STORAGE_OWNER = "owner";
+
+	public static final String STORAGE_ROW = "row";
+
+	public static final String STORAGE_CF = "cf";
+
+	private static final String RELATIONS_SUFFIX = "Relations";
+
+	private static final Bytes NO_COLUMN = new Bytes(new byte[0]);
+
+	private final String columnFamily;
+
+	private final Bytes rowKey;
+
+	private final Bytes column;
+
+	private final boolean dedicatedRow;
+
+	private RelationLocation(String columnFamily, Bytes rowKey, Bytes column,
+			boolean dedicatedRow) {
+		this.columnFamily = columnFamily;
+		this.rowKey = rowKey;
+		this.column = column;
+		this.dedicatedRow = dedicatedRow;
+	}
+
+	/**
+	 * Get the location of the relationship columns for the field
+	 * 
+	 * @param member
+	 *            The relationship field
+	 * @param ownerColumnFamily
+	 *            The column family of the owning object
+	 * @param ownerRowKey
+	 *            The row key of the owning object
+	 * @param ownerColumn
+	 *            The column name of the field
+	 * @return
+	 */
+	public static RelationLocation forField(AbstractMemberMetaData member,
+			String ownerColumnFamily, Bytes ownerRowKey, Bytes ownerColumn) {
+
+		String storage = member.getValueForExtension(STORAGE_EXTENSION);
+
+		if (storage == null || STORAGE_OWNER.equals(storage)) {
+			return new RelationLocation(ownerColumnFamily, ownerRowKey,
+					ownerColumn, false);
+		}
+
+		if (STORAGE_ROW.equals(storage)) {
+			return new RelationLocation(ownerColumnFamily, getRowKey(
+					ownerRowKey, ownerColumn), NO_COLUMN, true);
+		}
+
+		if (STORAGE_CF.equals(storage)) {
+			return new RelationLocation(ownerColumnFamily + RELATIONS_SUFFIX,
+					ownerRowKey, ownerColumn, false);
+		}
+
+		throw new NucleusDataStoreException(String.format(
+				"Unknown relation storage '%s' on field %s", storage,
+				member.getFullFieldName()));
+	}
+
+	/**
+	 * Get the column family the relationships of the class are stored in if
+	 * any of its fields use the cf storage
+	 * 
+	 * @param metaData
+	 * @param ownerColumnFamily
+	 * @return The column family or null if no field uses it
+	 */
+	public static String getRelationsColumnFamily(
+			AbstractClassMetaData metaData, String ownerColumnFamily) {
+		for (int field : metaData.getAllMemberPositions()) {
+			AbstractMemberMetaData member = metaData
+					.getMetaDataForManagedMemberAtAbsolutePosition(field);
+
+			if (STORAGE_CF.equals(member
+					.getValueForExtension(STORAGE_EXTENSION))) {
+				return ownerColumnFamily + RELATIONS_SUFFIX;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return The column family the relationship columns are stored in
+	 */
+	public String getColumnFamily() {
+		return columnFamily;
+	}
+
+	/**
+	 * @return The row the relationship columns are stored in
+	 */
+	public Bytes getRowKey() {
+		return rowKey;
+	}
+
+	/**
+	 * @return The column name the relationship columns are prefixed with
+	 */
+	public Bytes getColumn() {
+		return column;
+	}
+
+	/**
+	 * @return True if the row only holds this relationship and can be
+	 *         deleted as a whole
+	 */
+	public boolean isDedicatedRow() {
+		return dedicatedRow;
+	}
+
+	/**
+	 * The row key of a dedicated row is the owner's row key, the delimiter and
+	 * the field's column name. It's longer than the owner's key, so it only
+	 * collides with another object's row if that key contains the delimiter
+	 * 
+	 * @param ownerRowKey
+	 * @param ownerColumn
+	 * @return
+	 */
+	private static Bytes getRowKey(Bytes ownerRowKey, Bytes ownerColumn) {
+		byte[] key = ownerRowKey.toByteArray();
+		byte[] column = ownerColumn.toByteArray();
+
+		ByteBuffer buffer = ByteBuffer.allocate(key.length + 1 + column.length);
+		buffer.put(key);
+		buffer.put(ExternalEntity.DELIM_MIN);
+		buffer.put(column);
+		buffer.flip();
+
+		return Bytes.fromByteBuffer(buffer);
+	}
+}
@@ -21,10 +21,10 @@ import java.nio.ByteBuffer;
 
 import org.apache.cassandra.thrift.Column;
 import org.scale7.cassandra.pelops.Bytes;
-import org.scale7.cassandra.pelops.Mutator;
 import org.scale7.cassandra.pelops.Selector;
 
 import com.spidertracks.datanucleus.convert.ByteConverterContext;
+import com.spidertracks.datanucleus.mutate.MutationBatch;
 
 /**
  * Object for writing collection columns
@@ -47,7 +47,7 @@ public class WriteCollection extends ExternalEntityWriter {
 	 * Write the relationship column
 	 * @param mutator
 	 */
-	public void writeRelationship(Mutator mutator, Object entityKey) {
+	public void writeRelationship(MutationBatch mutator, Object entityKey) {
 		// a DRE, take the property +256 bytes so the buffer hopefully won't need to be re-allocated and copied.
 		ByteBuffer buffer = ByteBuffer.allocate(ownerColumn.length() + 256);
 
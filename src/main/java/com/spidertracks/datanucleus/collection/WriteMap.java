@@ -21,10 +21,10 @@ import java.nio.ByteBuffer;
 
 import org.apache.cassandra.thrift.Column;
 import org.scale7.cassandra.pelops.Bytes;
-import org.scale7.cassandra.pelops.Mutator;
 import org.scale7.cassandra.pelops.Selector;
 
 import com.spidertracks.datanucleus.convert.ByteConverterContext;
+import com.spidertracks.datanucleus.mutate.MutationBatch;
 
 /**
  * Object for writing collection columns
@@ -45,7 +45,7 @@ public class WriteMap extends ExternalEntityWriter {
 	 * Write the relationship column
 	 * @param mutator
 	 */
-	public void writeRelationship(Mutator mutator, Object key, Object entityKey) {
+	public void writeRelationship(MutationBatch mutator, Object key, Object entityKey) {
 		// a DRE, take the property +256 bytes so the buffer hopefully won't need to be re-allocated and copied.
 		ByteBuffer buffer = ByteBuffer.allocate(ownerColumn.length() + 256);
 
@@ -59,6 +59,7 @@ public class WriteMap extends ExternalEntityWriter {
 		super.addStoredColumn(buffer);
 		
 		ByteBuffer value = context.getRowKeyForId(entityKey, null);
+		value.limit(value.position());
 		value.reset();
 
 		Column keyColumn = mutator.newColumn(Bytes.fromByteBuffer(buffer),
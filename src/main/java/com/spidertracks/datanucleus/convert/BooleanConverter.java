@@ -26,7 +26,7 @@ import org.scale7.cassandra.pelops.ColumnFamilyManager;
  * @author Todd Nine
  *
  */
-public class BooleanConverter implements ByteConverter {
+public class BooleanConverter implements ByteConverter.OfBoolean {
 
 	private static final byte TRUE = 1;
 	private static final byte FALSE = 0;
@@ -57,6 +57,16 @@ public class BooleanConverter implements ByteConverter {
 
 	
 
+	@Override
+	public boolean getBoolean(ByteBuffer buffer) {
+		return buffer.get(buffer.position()) == TRUE;
+	}
+
+	@Override
+	public ByteBuffer writeBoolean(boolean value, ByteBuffer buffer) {
+		return check(buffer, 1).put(value ? TRUE : FALSE);
+	}
+
 	@Override
 	public String getComparatorType() {
 		return ColumnFamilyManager.CFDEF_COMPARATOR_BYTES;
@@ -21,7 +21,6 @@ import static com.spidertracks.datanucleus.convert.ConverterUtils.check;
 
 import java.nio.ByteBuffer;
 
-import org.scale7.cassandra.pelops.Bytes;
 import org.scale7.cassandra.pelops.ColumnFamilyManager;
 
 /**
@@ -36,7 +35,11 @@ public class ByteArrayConverter implements ByteConverter{
 			return null;
 		}
 		
-		return Bytes.fromByteBuffer(buffer).toByteArray();
+		// the buffer may be a view of a larger thrift buffer, only copy the value
+		byte[] data = new byte[buffer.remaining()];
+		buffer.duplicate().get(data);
+		
+		return data;
 	}
 
 	@Override
@@ -36,7 +36,82 @@ public interface ByteConverter {
 	 * @return
 	 */
 	public String getComparatorType();
-	
-	
-	
+
+	/*
+	 * Converters of primitive values can also implement the matching interface
+	 * below. The field managers then read and write the value without boxing
+	 * it. Reads start at the position of the buffer but don't move it, writes
+	 * follow the same rules as writeBytes.
+	 */
+
+	/**
+	 * Reads and writes boolean values without boxing
+	 */
+	public interface OfBoolean extends ByteConverter {
+
+		public boolean getBoolean(ByteBuffer buffer);
+
+		public ByteBuffer writeBoolean(boolean value, ByteBuffer buffer);
+	}
+
+	/**
+	 * Reads and writes char values without boxing
+	 */
+	public interface OfChar extends ByteConverter {
+
+		public char getChar(ByteBuffer buffer);
+
+		public ByteBuffer writeChar(char value, ByteBuffer buffer);
+	}
+
+	/**
+	 * Reads and writes short values without boxing
+	 */
+	public interface OfShort extends ByteConverter {
+
+		public short getShort(ByteBuffer buffer);
+
+		public ByteBuffer writeShort(short value, ByteBuffer buffer);
+	}
+
+	/**
+	 * Reads and writes int values without boxing
+	 */
+	public interface OfInt extends ByteConverter {
+
+		public int getInt(ByteBuffer buffer);
+
+		public ByteBuffer writeInt(int value, ByteBuffer buffer);
+	}
+
+	/**
+	 * Reads and writes long values without boxing
+	 */
+	public interface OfLong extends ByteConverter {
+
+		public long getLong(ByteBuffer buffer);
+
+		public ByteBuffer writeLong(long value, ByteBuffer buffer);
+	}
+
+	/**
+	 * Reads and writes float values without boxing
+	 */
+	public interface OfFloat extends ByteConverter {
+
+		public float getFloat(ByteBuffer buffer);
+
+		public ByteBuffer writeFloat(float value, ByteBuffer buffer);
+	}
+
+	/**
+	 * Reads and writes double values without boxing
+	 */
+	public interface OfDouble extends ByteConverter {
+
+		public double getDouble(ByteBuffer buffer);
+
+		public ByteBuffer writeDouble(double value, ByteBuffer buffer);
+	}
+
 }
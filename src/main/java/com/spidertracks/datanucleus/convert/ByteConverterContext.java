@@ -20,14 +20,15 @@ package com.spidertracks.datanucleus.convert;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.jdo.identity.ObjectIdentity;
 import javax.jdo.identity.SingleFieldIdentity;
 
+import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.api.ApiAdapter;
 import org.datanucleus.exceptions.NucleusDataStoreException;
 import org.datanucleus.metadata.AbstractClassMetaData;
@@ -97,7 +98,10 @@ import com.spidertracks.datanucleus.serialization.Serializer;
  */
 public class ByteConverterContext {
 
-	private Map<Class<?>, ByteConverter> converters;
+	// shared by every thread, converters for new classes are resolved once
+	private ConcurrentMap<Class<?>, ByteConverter> converters;
+
+	private ConcurrentMap<AbstractClassMetaData, CodecPlan> plans = new ConcurrentHashMap<AbstractClassMetaData, CodecPlan>();
 
 	private ByteConverter boolConverter;
 	private ByteConverter charConverter;
@@ -109,6 +113,16 @@ public class ByteConverterContext {
 	private ByteConverter stringConverter;
 	private ByteConverter serializerConverter;
 
+	// the primitive converters again if they can encode without boxing, null
+	// if a user defined converter can't
+	private ByteConverter.OfBoolean boolCodec;
+	private ByteConverter.OfChar charCodec;
+	private ByteConverter.OfShort shortCodec;
+	private ByteConverter.OfInt intCodec;
+	private ByteConverter.OfDouble doubleCodec;
+	private ByteConverter.OfLong longCodec;
+	private ByteConverter.OfFloat floatCodec;
+
 	private Serializer serializer;
 	private TypeManager typeManager;
 	private ApiAdapter apiAdapter;
@@ -129,7 +143,7 @@ public class ByteConverterContext {
 	 * @param propertiesFilePath
 	 */
 	private void initialize(String propertiesFilePath) {
-		converters = new HashMap<Class<?>, ByteConverter>();
+		converters = new ConcurrentHashMap<Class<?>, ByteConverter>();
 
 		/**
 		 * Load our defaults
@@ -197,6 +211,14 @@ public class ByteConverterContext {
 		this.shortConverter = converters.get(Short.class);
 		this.stringConverter = converters.get(String.class);
 
+		this.boolCodec = codec(boolConverter, ByteConverter.OfBoolean.class);
+		this.charCodec = codec(charConverter, ByteConverter.OfChar.class);
+		this.shortCodec = codec(shortConverter, ByteConverter.OfShort.class);
+		this.intCodec = codec(intConverter, ByteConverter.OfInt.class);
+		this.doubleCodec = codec(doubleConverter, ByteConverter.OfDouble.class);
+		this.longCodec = codec(longConverter, ByteConverter.OfLong.class);
+		this.floatCodec = codec(floatConverter, ByteConverter.OfFloat.class);
+
 		this.serializerConverter = new SerializerWrapperConverter(serializer);
 
 	}
@@ -266,7 +288,7 @@ public class ByteConverterContext {
 			objectId = id;
 		}
 
-		ByteConverter converter = determineConverter(objectId.getClass());
+		ByteConverter converter = getConverter(objectId.getClass());
 
 		if (converter == serializerConverter) {
 			throw new NucleusDataStoreException(
@@ -296,17 +318,7 @@ public class ByteConverterContext {
 	 * @return
 	 */
 	public Bytes getBytes(Object value) {
-		ByteConverter converter = converters.get(value.getClass());
-
-		if (converter != null) {
-			return convertPelops(converter, value);
-		}
-
-		converter = determineConverter(value.getClass());
-
-		converters.put(value.getClass(), converter);
-
-		return convertPelops(converter, value);
+		return convertPelops(getConverter(value.getClass()), value);
 	}
 
 	/**
@@ -319,16 +331,7 @@ public class ByteConverterContext {
 	 */
 	public ByteBuffer getBytes(Object value, ByteBuffer buffer) {
 
-		ByteConverter converter = converters.get(value.getClass());
-
-		if (converter == null) {
-
-			converter = determineConverter(value.getClass());
-
-			converters.put(value.getClass(), converter);
-		}
-
-		return converter.writeBytes(value, buffer, this);
+		return getConverter(value.getClass()).writeBytes(value, buffer, this);
 
 	}
 
@@ -375,17 +378,7 @@ public class ByteConverterContext {
 	 * @return
 	 */
 	public Object getObject(ByteBuffer buffer, Class<?> targetType) {
-		ByteConverter converter = converters.get(targetType);
-
-		if (converter != null) {
-			return convertToObject(converter, buffer);
-		}
-
-		converter = determineConverter(targetType);
-
-		converters.put(targetType, converter);
-
-		return convertToObject(converter, buffer);
+		return convertToObject(getConverter(targetType), buffer);
 	}
 
 	/**
@@ -407,18 +400,72 @@ public class ByteConverterContext {
 	 */
 	public Object getObject(Bytes value, Class<?> targetType) {
 
-		ByteConverter converter = converters.get(targetType);
+		return convertToObject(getConverter(targetType), value);
+
+	}
+
+	/**
+	 * Convert the bytes to a value with a converter that has already been
+	 * determined, such as one from a {@link CodecPlan}
+	 * 
+	 * @param value
+	 * @param converter
+	 * @return
+	 */
+	public Object getObject(Bytes value, ByteConverter converter) {
+		return convertToObject(converter, value);
+	}
+
+	/**
+	 * Get the codec plan for the class, building and caching it on first use
+	 * 
+	 * @param metaData
+	 * @param clr
+	 * @return
+	 */
+	public CodecPlan getCodecPlan(AbstractClassMetaData metaData,
+			ClassLoaderResolver clr) {
+		CodecPlan plan = plans.get(metaData);
+
+		if (plan != null) {
+			return plan;
+		}
+
+		plan = new CodecPlan(metaData, this, clr);
+
+		CodecPlan existing = plans.putIfAbsent(metaData, plan);
+
+		if (existing != null) {
+			return existing;
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Get the converter for the class, determining and caching it on first
+	 * use. Never locks, if two threads race to cache a class the first
+	 * converter cached is used by both
+	 * 
+	 * @param clazz
+	 * @return
+	 */
+	public ByteConverter getConverter(Class<?> clazz) {
+		ByteConverter converter = converters.get(clazz);
 
 		if (converter != null) {
-			return convertToObject(converter, value);
+			return converter;
 		}
 
-		converter = determineConverter(targetType);
+		converter = determineConverter(clazz);
 
-		converters.put(targetType, converter);
+		ByteConverter existing = converters.putIfAbsent(clazz, converter);
 
-		return convertToObject(converter, value);
+		if (existing != null) {
+			return existing;
+		}
 
+		return converter;
 	}
 
 	/**
@@ -537,11 +584,130 @@ public class ByteConverterContext {
 	 */
 	public String getValidationClass(Class<?> fieldClass) {
 
-		ByteConverter converter = determineConverter(fieldClass);
+		ByteConverter converter = getConverter(fieldClass);
 
 		return converter.getComparatorType();
 	}
 
+	/*
+	 * Primitive conversions. These don't box the value when the converter for
+	 * the wrapper type implements the matching ByteConverter.OfXXX interface,
+	 * and fall back to the boxed conversion when it doesn't. Decoding a null
+	 * value throws a NullPointerException, the same as unboxing a null would
+	 */
+
+	public Bytes getBytes(boolean value) {
+		if (boolCodec == null) {
+			return getBytes(Boolean.valueOf(value));
+		}
+
+		return toPelops(boolCodec.writeBoolean(value, null));
+	}
+
+	public boolean getBooleanValue(Bytes bytes) {
+		if (boolCodec == null) {
+			return getBoolean(bytes);
+		}
+
+		return boolCodec.getBoolean(bytes.getBytes());
+	}
+
+	public Bytes getBytes(char value) {
+		if (charCodec == null) {
+			return getBytes(Character.valueOf(value));
+		}
+
+		return toPelops(charCodec.writeChar(value, null));
+	}
+
+	public char getCharValue(Bytes bytes) {
+		if (charCodec == null) {
+			return getCharacter(bytes);
+		}
+
+		return charCodec.getChar(bytes.getBytes());
+	}
+
+	public Bytes getBytes(short value) {
+		if (shortCodec == null) {
+			return getBytes(Short.valueOf(value));
+		}
+
+		return toPelops(shortCodec.writeShort(value, null));
+	}
+
+	public short getShortValue(Bytes bytes) {
+		if (shortCodec == null) {
+			return getShort(bytes);
+		}
+
+		return shortCodec.getShort(bytes.getBytes());
+	}
+
+	public Bytes getBytes(int value) {
+		if (intCodec == null) {
+			return getBytes(Integer.valueOf(value));
+		}
+
+		return toPelops(intCodec.writeInt(value, null));
+	}
+
+	public int getIntValue(Bytes bytes) {
+		if (intCodec == null) {
+			return getInteger(bytes);
+		}
+
+		return intCodec.getInt(bytes.getBytes());
+	}
+
+	public Bytes getBytes(double value) {
+		if (doubleCodec == null) {
+			return getBytes(Double.valueOf(value));
+		}
+
+		return toPelops(doubleCodec.writeDouble(value, null));
+	}
+
+	public double getDoubleValue(Bytes bytes) {
+		if (doubleCodec == null) {
+			return getDouble(bytes);
+		}
+
+		return doubleCodec.getDouble(bytes.getBytes());
+	}
+
+	public Bytes getBytes(long value) {
+		if (longCodec == null) {
+			return getBytes(Long.valueOf(value));
+		}
+
+		return toPelops(longCodec.writeLong(value, null));
+	}
+
+	public long getLongValue(Bytes bytes) {
+		if (longCodec == null) {
+			return getLong(bytes);
+		}
+
+		return longCodec.getLong(bytes.getBytes());
+	}
+
+	public Bytes getBytes(float value) {
+		if (floatCodec == null) {
+			return getBytes(Float.valueOf(value));
+		}
+
+		return toPelops(floatCodec.writeFloat(value, null));
+	}
+
+	public float getFloatValue(Bytes bytes) {
+		if (floatCodec == null) {
+			return getFloat(bytes);
+		}
+
+		return floatCodec.getFloat(bytes.getBytes());
+	}
+
 	public Bytes getBytes(Boolean value) {
 		return Bytes.fromByteBuffer(convertToBytes(this.boolConverter, value));
 	}
@@ -621,6 +787,35 @@ public class ByteConverterContext {
 		return Bytes.fromByteBuffer(convertToBytes(converter, value));
 	}
 
+	/**
+	 * Rewind a buffer written from null by a primitive converter to the mark
+	 * and wrap it, the same as convertToBytes does
+	 * 
+	 * @param buff
+	 * @return
+	 */
+	private Bytes toPelops(ByteBuffer buff) {
+		buff.limit(buff.position());
+		buff.reset();
+		return Bytes.fromByteBuffer(buff);
+	}
+
+	/**
+	 * Return the converter as it's primitive interface, or null if it doesn't
+	 * implement it
+	 * 
+	 * @param converter
+	 * @param codecType
+	 * @return
+	 */
+	private static <T> T codec(ByteConverter converter, Class<T> codecType) {
+		if (codecType.isInstance(converter)) {
+			return codecType.cast(converter);
+		}
+
+		return null;
+	}
+
 	/**
 	 * Allocate a byte buffer and convert the bytes with the given converter.
 	 * Performs a mark and a reset on the internal buffer before invoking the
@@ -634,7 +829,7 @@ public class ByteConverterContext {
 		ByteBuffer buff = converter.writeBytes(value, null, this);
 
 		if (buff != null) {
-			buff.limit();
+			buff.limit(buff.position());
 			buff.reset();
 		}
 		
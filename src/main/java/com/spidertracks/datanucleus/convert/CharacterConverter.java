@@ -26,7 +26,7 @@ import org.scale7.cassandra.pelops.ColumnFamilyManager;
  * @author Todd Nine
  *
  */
-public class CharacterConverter implements ByteConverter {
+public class CharacterConverter implements ByteConverter.OfChar {
 
 	private static final int SIZE = Character.SIZE / Byte.SIZE;
 	
@@ -45,6 +45,16 @@ public class CharacterConverter implements ByteConverter {
 		return returned.putChar((Character) value);
 	}
 
+	@Override
+	public char getChar(ByteBuffer buffer) {
+		return buffer.getChar(buffer.position());
+	}
+
+	@Override
+	public ByteBuffer writeChar(char value, ByteBuffer buffer) {
+		return check(buffer, SIZE).putChar(value);
+	}
+
 	@Override
 	public String getComparatorType() {
 		return ColumnFamilyManager.CFDEF_COMPARATOR_BYTES;
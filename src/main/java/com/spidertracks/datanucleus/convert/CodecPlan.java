@@ -0,0 +1,164 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.convert;
+
+import static com.spidertracks.datanucleus.utils.MetaDataUtils.getColumnName;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.Relation;
+import org.scale7.cassandra.pelops.Bytes;
+
+/**
+ * Everything the field managers need to write or read a field of a class,
+ * resolved once per class and indexed by absolute field number. Holds the
+ * column name, the member, it's relation type and the converter for it's
+ * declared type. Plans are immutable and shared by every thread.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class CodecPlan {
+
+	private final AbstractMemberMetaData[] members;
+
+	private final Bytes[] columnNames;
+
+	private final int[] relationTypes;
+
+	private final ByteConverter[] converters;
+
+	/**
+	 * 
+	 * @param metaData
+	 *            The class to plan
+	 * @param byteContext
+	 *            The context to resolve converters from
+	 * @param clr
+	 */
+	CodecPlan(AbstractClassMetaData metaData, ByteConverterContext byteContext,
+			ClassLoaderResolver clr) {
+		int[] positions = metaData.getAllMemberPositions();
+
+		int size = 0;
+
+		for (int position : positions) {
+			size = Math.max(size, position + 1);
+		}
+
+		members = new AbstractMemberMetaData[size];
+		columnNames = new Bytes[size];
+		relationTypes = new int[size];
+		converters = new ByteConverter[size];
+
+		for (int position : positions) {
+			AbstractMemberMetaData member = metaData
+					.getMetaDataForManagedMemberAtAbsolutePosition(position);
+
+			members[position] = member;
+			columnNames[position] = getColumnName(metaData, position);
+			relationTypes[position] = member.getRelationType(clr);
+
+			// relations are written as keys and columns, not converted
+			if (relationTypes[position] == Relation.NONE) {
+				converters[position] = byteContext
+						.getConverter(wrap(member.getType()));
+			}
+		}
+	}
+
+	/**
+	 * @param fieldNumber
+	 *            The absolute field number
+	 * @return The member at the field number
+	 */
+	public AbstractMemberMetaData getMember(int fieldNumber) {
+		return members[fieldNumber];
+	}
+
+	/**
+	 * @param fieldNumber
+	 *            The absolute field number
+	 * @return The column the field is stored in
+	 */
+	public Bytes getColumnName(int fieldNumber) {
+		return columnNames[fieldNumber];
+	}
+
+	/**
+	 * @param fieldNumber
+	 *            The absolute field number
+	 * @return The relation type of the field. See {@link Relation}
+	 */
+	public int getRelationType(int fieldNumber) {
+		return relationTypes[fieldNumber];
+	}
+
+	/**
+	 * @param fieldNumber
+	 *            The absolute field number
+	 * @return The converter for the declared type of the field, null if the
+	 *         field is a relation
+	 */
+	public ByteConverter getConverter(int fieldNumber) {
+		return converters[fieldNumber];
+	}
+
+	/**
+	 * Converters are mapped by the wrapper type of a primitive
+	 * 
+	 * @param type
+	 * @return
+	 */
+	private static Class<?> wrap(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return type;
+		}
+
+		if (type == boolean.class) {
+			return Boolean.class;
+		}
+
+		if (type == char.class) {
+			return Character.class;
+		}
+
+		if (type == byte.class) {
+			return Byte.class;
+		}
+
+		if (type == short.class) {
+			return Short.class;
+		}
+
+		if (type == int.class) {
+			return Integer.class;
+		}
+
+		if (type == long.class) {
+			return Long.class;
+		}
+
+		if (type == float.class) {
+			return Float.class;
+		}
+
+		return Double.class;
+	}
+}
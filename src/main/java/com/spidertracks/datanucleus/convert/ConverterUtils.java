@@ -18,7 +18,6 @@ Contributors :
 package com.spidertracks.datanucleus.convert;
 
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 /**
  * @author Todd Nine
@@ -28,7 +27,12 @@ public class ConverterUtils  {
 
 	/**
 	 * Check if the buffer has the remaining capacity to hold the number
-	 * of bytes.  If not, create a new buffer with the required size and return it
+	 * of bytes.  If not, create a new buffer and return it.  A null buffer is 
+	 * allocated with exactly the required size.  A full buffer at least doubles 
+	 * in capacity, so a value written with many small checks is only copied 
+	 * a logarithmic number of times.  A grown buffer can be larger than the
+	 * bytes written to it, callers must set the limit to the position before 
+	 * reading it back
 	 * @param buffer
 	 * @param size
 	 * @return
@@ -45,12 +49,12 @@ public class ConverterUtils  {
 
 			int position = buffer.position();
 
-			ByteBuffer newBuffer = ByteBuffer.allocate(position + size + 1);
-			newBuffer.mark();
+			int capacity = Math.max(position + size, buffer.capacity() * 2);
 
-			buffer.reset();
+			ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+			newBuffer.mark();
 
-			newBuffer.put(Arrays.copyOfRange(buffer.array(), 0, position));
+			newBuffer.put(buffer.array(), buffer.arrayOffset(), position);
 
 			return newBuffer;
 
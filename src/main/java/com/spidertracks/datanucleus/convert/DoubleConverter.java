@@ -26,7 +26,7 @@ import org.scale7.cassandra.pelops.ColumnFamilyManager;
  * @author Todd Nine
  * 
  */
-public class DoubleConverter implements ByteConverter {
+public class DoubleConverter implements ByteConverter.OfDouble {
 
 	private static final int SIZE = Double.SIZE / Byte.SIZE;
 
@@ -51,6 +51,16 @@ public class DoubleConverter implements ByteConverter {
 	}
 
 	
+	@Override
+	public double getDouble(ByteBuffer buffer) {
+		return buffer.getDouble(buffer.position());
+	}
+
+	@Override
+	public ByteBuffer writeDouble(double value, ByteBuffer buffer) {
+		return check(buffer, SIZE).putDouble(value);
+	}
+
 	@Override
 	public String getComparatorType() {
 		return ColumnFamilyManager.CFDEF_COMPARATOR_INTEGER;
@@ -26,7 +26,7 @@ import org.scale7.cassandra.pelops.ColumnFamilyManager;
  * @author Todd Nine
  * 
  */
-public class FloatConverter implements ByteConverter {
+public class FloatConverter implements ByteConverter.OfFloat {
 
 	private static final int SIZE = Float.SIZE / Byte.SIZE;
 
@@ -51,6 +51,16 @@ public class FloatConverter implements ByteConverter {
 	}
 
 
+	@Override
+	public float getFloat(ByteBuffer buffer) {
+		return buffer.getFloat(buffer.position());
+	}
+
+	@Override
+	public ByteBuffer writeFloat(float value, ByteBuffer buffer) {
+		return check(buffer, SIZE).putFloat(value);
+	}
+
 	@Override
 	public String getComparatorType() {
 		return ColumnFamilyManager.CFDEF_COMPARATOR_LONG;
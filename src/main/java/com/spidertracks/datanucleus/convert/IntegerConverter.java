@@ -26,7 +26,7 @@ import org.scale7.cassandra.pelops.ColumnFamilyManager;
  * @author Todd Nine
  * 
  */
-public class IntegerConverter implements ByteConverter {
+public class IntegerConverter implements ByteConverter.OfInt {
 
 	private static final int SIZE = Integer.SIZE / Byte.SIZE;
 
@@ -50,6 +50,16 @@ public class IntegerConverter implements ByteConverter {
 	}
 
 
+	@Override
+	public int getInt(ByteBuffer buffer) {
+		return buffer.getInt(buffer.position());
+	}
+
+	@Override
+	public ByteBuffer writeInt(int value, ByteBuffer buffer) {
+		return check(buffer, SIZE).putInt(value);
+	}
+
 	@Override
 	public String getComparatorType() {
 		return ColumnFamilyManager.CFDEF_COMPARATOR_INTEGER;
@@ -26,7 +26,7 @@ import org.scale7.cassandra.pelops.ColumnFamilyManager;
  * @author Todd Nine
  * 
  */
-public class LongConverter implements ByteConverter {
+public class LongConverter implements ByteConverter.OfLong {
 
 	private static final int SIZE = Long.SIZE / Byte.SIZE;
 
@@ -50,6 +50,16 @@ public class LongConverter implements ByteConverter {
 		return returned.putLong((Long) value);
 	}
 
+	@Override
+	public long getLong(ByteBuffer buffer) {
+		return buffer.getLong(buffer.position());
+	}
+
+	@Override
+	public ByteBuffer writeLong(long value, ByteBuffer buffer) {
+		return check(buffer, SIZE).putLong(value);
+	}
+
 	@Override
 	public String getComparatorType() {
 		return ColumnFamilyManager.CFDEF_COMPARATOR_LONG;
@@ -18,11 +18,13 @@ Contributors :
 package com.spidertracks.datanucleus.convert;
 import static com.spidertracks.datanucleus.convert.ConverterUtils.check;
 
+import java.io.ByteArrayInputStream;
 import java.nio.ByteBuffer;
 
 import org.scale7.cassandra.pelops.ColumnFamilyManager;
 
 import com.spidertracks.datanucleus.serialization.Serializer;
+import com.spidertracks.datanucleus.serialization.StreamSerializer;
 
 /**
  * Wrapper around our serlializer instance
@@ -43,7 +45,18 @@ public class SerializerWrapperConverter implements ByteConverter {
 			return null;
 		}
 
-		// TODO this be required to copy
+		// read the serialized bytes in place
+		if (serializer instanceof StreamSerializer && buffer.hasArray()) {
+			Object value = ((StreamSerializer) serializer)
+					.getObject(new ByteArrayInputStream(buffer.array(), buffer
+							.arrayOffset()
+							+ buffer.position(), buffer.remaining()));
+
+			buffer.position(buffer.limit());
+
+			return value;
+		}
+
 		byte[] data = new byte[buffer.limit() - buffer.position()];
 
 		buffer.get(data);
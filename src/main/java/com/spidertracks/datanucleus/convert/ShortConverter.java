@@ -26,7 +26,7 @@ import org.scale7.cassandra.pelops.ColumnFamilyManager;
  * @author Todd Nine
  * 
  */
-public class ShortConverter implements ByteConverter {
+public class ShortConverter implements ByteConverter.OfShort {
 
 	private static final int SIZE = Short.SIZE / Byte.SIZE;
 
@@ -52,6 +52,16 @@ public class ShortConverter implements ByteConverter {
 	}
 
 
+	@Override
+	public short getShort(ByteBuffer buffer) {
+		return buffer.getShort(buffer.position());
+	}
+
+	@Override
+	public ByteBuffer writeShort(short value, ByteBuffer buffer) {
+		return check(buffer, SIZE).putShort(value);
+	}
+
 	@Override
 	public String getComparatorType() {
 		return ColumnFamilyManager.CFDEF_COMPARATOR_BYTES;
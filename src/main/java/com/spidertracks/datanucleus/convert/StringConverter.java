@@ -25,6 +25,9 @@ import java.nio.charset.Charset;
 import org.scale7.cassandra.pelops.ColumnFamilyManager;
 
 /**
+ * Encodes strings as UTF 8. Values are sized by their encoded length, not
+ * their char count, so multibyte strings fit the buffer they're written to.
+ * 
  * @author Todd Nine
  * 
  */
@@ -43,8 +46,8 @@ public class StringConverter implements ByteConverter {
 			return null;
 		}
 
-		return new String(buffer.array(), buffer.position(),
-				buffer.remaining(), ENCODING);
+		return new String(buffer.array(), buffer.arrayOffset()
+				+ buffer.position(), buffer.remaining(), ENCODING);
 
 	}
 
@@ -54,9 +57,19 @@ public class StringConverter implements ByteConverter {
 			return buffer;
 		}
 
-		ByteBuffer returned = check(buffer, ((String) value).length());
+		byte[] encoded = ((String) value).getBytes(ENCODING);
+
+		// nothing to append to, use the encoded bytes as the buffer
+		if (buffer == null) {
+			ByteBuffer wrapped = ByteBuffer.wrap(encoded);
+			wrapped.mark();
+			wrapped.position(encoded.length);
+			return wrapped;
+		}
+
+		ByteBuffer returned = check(buffer, encoded.length);
 
-		return returned.put(((String) value).getBytes(ENCODING));
+		return returned.put(encoded);
 
 	}
 
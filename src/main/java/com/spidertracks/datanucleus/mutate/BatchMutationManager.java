@@ -16,25 +16,52 @@ Contributors : Todd Nine
  ***********************************************************************/
 package com.spidertracks.datanucleus.mutate;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.datanucleus.Transaction;
+import org.datanucleus.TransactionEventListener;
+import org.datanucleus.exceptions.NucleusDataStoreException;
 import org.datanucleus.store.ExecutionContext;
 import org.datanucleus.store.ObjectProvider;
-import org.scale7.cassandra.pelops.Pelops;
 
 import com.spidertracks.datanucleus.CassandraStoreManager;
 
 /**
  * Internalises all pending operations for a given Execution context.
  * 
+ * By default the mutation is sent when the root write ends. In transactional
+ * batch mode, writes made in an active transaction are held until the
+ * transaction flushes or commits, and are then sent in batches of at most
+ * {@link CassandraStoreManager#getBatchSize()} rows. Held writes are not
+ * visible to reads until they are sent, and batches already sent can't be
+ * rolled back.
+ * 
+ * With a write behind queue, batches are handed to background threads
+ * instead of being sent by the writing thread. A transaction waits for them
+ * when it flushes or commits, outside of one failures are only logged.
+ * 
+ * Every root write and delete gets a timestamp newer than the one before it,
+ * even within the same microsecond. Cassandra keeps a delete over a write
+ * with the same timestamp, so a row written again after it was deleted would
+ * otherwise be lost.
+ * 
+ * One manager is shared by every execution context of the store manager. An
+ * execution context is only used by one thread at a time, so the state for a
+ * context needs no locking. The maps are concurrent so contexts on other
+ * threads never block each other.
+ * 
  * @author Todd Nine
  * 
  */
 public class BatchMutationManager {
 
-	private Map<ExecutionContext, ExecutionContextMutate> contextMutations = new HashMap<ExecutionContext, ExecutionContextMutate>();
-	private Map<ExecutionContext, ExecutionContextDelete> contextDeletions = new HashMap<ExecutionContext, ExecutionContextDelete>();
+	private ConcurrentMap<ExecutionContext, ExecutionContextMutate> contextMutations = new ConcurrentHashMap<ExecutionContext, ExecutionContextMutate>();
+	private ConcurrentMap<ExecutionContext, ExecutionContextDelete> contextDeletions = new ConcurrentHashMap<ExecutionContext, ExecutionContextDelete>();
+
+	// the last timestamp handed out
+	private AtomicLong lastTimestamp = new AtomicLong();
 
 	private CassandraStoreManager manager;
 
@@ -52,6 +79,12 @@ public class BatchMutationManager {
 
 	public ExecutionContextMutate beginWrite(ExecutionContext context) {
 		ExecutionContextMutate mutationContext = getMutations(context);
+
+		// a new root write, it's writes are newer than every held write
+		if (!mutationContext.hasInstances()) {
+			mutationContext.begin(createBatch(nextTimestamp()));
+		}
+
 		mutationContext.pushInstance();
 		return mutationContext;
 	}
@@ -74,7 +107,23 @@ public class BatchMutationManager {
 
 		// it is our root instance, create the batch mutation.
 
-		getDeletions(context).execute();
+		ExecutionContextDelete deletions = getDeletions(context);
+
+		// send held writes first so a row written again after the delete
+		// gets a newer timestamp than the delete
+		ExecutionContextMutate held = contextMutations.get(context);
+
+		if (held != null && held.isTransactional() && !held.hasInstances()) {
+			flush(context);
+		}
+
+		try {
+			deletions.execute();
+		} finally {
+			// a failed write may still have been partly applied
+			deletions.invalidate(manager.getRowCacheManager());
+		}
+
 		contextDeletions.remove(context);
 
 	}
@@ -97,9 +146,58 @@ public class BatchMutationManager {
 
 		// it is our root instance, create the batch mutation.
 
-		getMutations(context).execute();
-		contextMutations.remove(context);
+		ExecutionContextMutate mutations = getMutations(context);
+
+		mutations.end();
+
+		// held until the transaction ends, unless the batch is full
+		if (mutations.isDeferred()
+				&& mutations.getRowCount() < manager.getBatchSize()) {
+			return;
+		}
+
+		flush(context);
+
+	}
+
+	/**
+	 * Send all pending writes for this context
+	 * 
+	 * @param context
+	 * @throws Exception
+	 */
+	private void flush(ExecutionContext context) throws Exception {
+		ExecutionContextMutate mutations = contextMutations.get(context);
+
+		if (mutations == null) {
+			return;
+		}
+
+		WriteBehindQueue writeBehind = manager.getWriteBehindQueue();
 
+		if (writeBehind != null) {
+			// the queue invalidates again once the batch is written
+			mutations.invalidate(manager.getRowCacheManager());
+			mutations.executeLater(writeBehind);
+		} else {
+			try {
+				mutations.execute();
+				mutations.keepTracked();
+			} catch (Exception e) {
+				mutations.forgetTracked();
+				throw e;
+			} finally {
+				// a failed write may still have been partly applied
+				mutations.invalidate(manager.getRowCacheManager());
+			}
+		}
+
+		if (mutations.isTransactional()) {
+			mutations.reset(createBatch(nextTimestamp()));
+			return;
+		}
+
+		contextMutations.remove(context);
 	}
 
 	/**
@@ -112,9 +210,29 @@ public class BatchMutationManager {
 		ExecutionContextMutate operations = contextMutations.get(context);
 
 		if (operations == null) {
+			Transaction tx = context.getTransaction();
+
+			boolean deferred = manager.isTransactionalBatch()
+					&& tx.isActive();
+
+			// background writes are waited on when the transaction ends
+			boolean transactional = tx.isActive()
+					&& (deferred || manager.getWriteBehindQueue() != null);
+
 			operations = new ExecutionContextMutate(context,
-					Pelops.createMutator(manager.getPoolName(), System.nanoTime()/1000));
-			contextMutations.put(context, operations);
+					createBatch(nextTimestamp()), deferred, transactional);
+
+			ExecutionContextMutate existing = contextMutations.putIfAbsent(
+					context, operations);
+
+			if (existing != null) {
+				return existing;
+			}
+
+			// listeners added here only last for the current transaction
+			if (transactional) {
+				tx.addTransactionEventListener(new TransactionFlush(context));
+			}
 		}
 
 		return operations;
@@ -130,12 +248,126 @@ public class BatchMutationManager {
 		ExecutionContextDelete operations = contextDeletions.get(context);
 
 		if (operations == null) {
-			operations = new ExecutionContextDelete(context, Pelops
-					.createRowDeletor(manager.getPoolName(), System.nanoTime()/1000));
-			contextDeletions.put(context, operations);
+			operations = new ExecutionContextDelete(context,
+					createBatch(nextTimestamp()));
+
+			ExecutionContextDelete existing = contextDeletions.putIfAbsent(
+					context, operations);
+
+			if (existing != null) {
+				return existing;
+			}
 		}
 
 		return operations;
 	}
 
+	/**
+	 * Create a batch of mutations with the given timestamp
+	 * 
+	 * @param timestamp
+	 * @return
+	 */
+	private MutationBatch createBatch(long timestamp) {
+		return new MutationBatch(manager.getPoolName(), timestamp,
+				manager.getBatchSize());
+	}
+
+	/**
+	 * Get a timestamp in microseconds that is newer than every timestamp
+	 * handed out before it
+	 * 
+	 * @return
+	 */
+	private long nextTimestamp() {
+		// the same clock as every other write of this plugin
+		long now = System.nanoTime() / 1000;
+
+		while (true) {
+			long last = lastTimestamp.get();
+			long next = Math.max(now, last + 1);
+
+			if (lastTimestamp.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Sends the writes held for a context before it's transaction commits, or
+	 * when it flushes, and waits for any sent in the background. Drops held
+	 * writes if it rolls back
+	 * 
+	 * @author Todd Nine
+	 * 
+	 */
+	private class TransactionFlush implements TransactionEventListener {
+
+		private ExecutionContext context;
+
+		private TransactionFlush(ExecutionContext context) {
+			this.context = context;
+		}
+
+		@Override
+		public void transactionStarted() {
+		}
+
+		@Override
+		public void transactionEnded() {
+			contextMutations.remove(context);
+		}
+
+		@Override
+		public void transactionPreFlush() {
+		}
+
+		@Override
+		public void transactionFlushed() {
+			send();
+		}
+
+		@Override
+		public void transactionPreCommit() {
+			// a failure here still rolls the transaction back
+			send();
+		}
+
+		@Override
+		public void transactionCommitted() {
+			// only writes made after the pre commit are still held
+			send();
+			contextMutations.remove(context);
+		}
+
+		@Override
+		public void transactionPreRollBack() {
+		}
+
+		@Override
+		public void transactionRolledBack() {
+			ExecutionContextMutate mutations = contextMutations.remove(context);
+
+			// the held writes were never sent
+			if (mutations != null) {
+				mutations.forgetTracked();
+			}
+		}
+
+		private void send() {
+			try {
+				flush(context);
+			} catch (Exception e) {
+				throw new NucleusDataStoreException(
+						"Unable to send the writes held for the transaction", e);
+			}
+
+			ExecutionContextMutate mutations = contextMutations.get(context);
+
+			if (mutations != null) {
+				mutations.awaitWrites();
+			}
+		}
+	}
+
 }
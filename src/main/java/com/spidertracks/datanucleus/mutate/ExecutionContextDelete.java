@@ -23,8 +23,8 @@ import java.util.Stack;
 import org.datanucleus.store.ExecutionContext;
 import org.datanucleus.store.ObjectProvider;
 import org.scale7.cassandra.pelops.Bytes;
-import org.scale7.cassandra.pelops.RowDeletor;
 
+import com.spidertracks.datanucleus.cache.RowCacheManager;
 import com.spidertracks.datanucleus.client.Consistency;
 
 /**
@@ -41,10 +41,10 @@ public class ExecutionContextDelete extends ExecutionContextOp {
 	//our reference to visited objects so we don't get stuck in a recursive delete
 	private IdentityHashMap<ObjectProvider, Object> visited = new IdentityHashMap<ObjectProvider, Object>();
 	private List<Deletion> mutations = new Stack<Deletion>();
-	private RowDeletor deletor;
+	private MutationBatch deletor;
 
 	
-	public ExecutionContextDelete(ExecutionContext ctx, RowDeletor deletor) {
+	public ExecutionContextDelete(ExecutionContext ctx, MutationBatch deletor) {
 		super(ctx);
 		this.deletor = deletor;
 	}
@@ -74,9 +74,39 @@ public class ExecutionContextDelete extends ExecutionContextOp {
 
 
 
+	/**
+	 * Delete a row that belongs to an object already added for deletion
+	 * 
+	 * @param key
+	 *            The key to delete
+	 * @param columnFamily
+	 *            The CF to delete from
+	 */
+	public void addRowDeletion(Bytes key, String columnFamily) {
+		mutations.add(new Deletion(key, columnFamily));
+	}
+
+	/**
+	 * Delete every row in as few batch_mutate calls as the batch size allows
+	 * 
+	 * @throws Exception
+	 */
 	public void execute() throws Exception {
 		for (Deletion deletion : mutations) {
-			deletor.deleteRow(deletion.columnFamily, deletion.rowKey, Consistency.get());
+			deletor.deleteRow(deletion.columnFamily, deletion.rowKey);
+		}
+
+		deletor.execute(Consistency.get());
+	}
+
+	/**
+	 * Remove every deleted row from the cache
+	 * 
+	 * @param cache
+	 */
+	public void invalidate(RowCacheManager cache) {
+		for (Deletion deletion : mutations) {
+			cache.invalidate(deletion.columnFamily, deletion.rowKey);
 		}
 	}
 	
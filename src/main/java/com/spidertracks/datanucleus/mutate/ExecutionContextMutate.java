@@ -16,25 +16,63 @@ Contributors : Todd Nine
  ***********************************************************************/
 package com.spidertracks.datanucleus.mutate;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import org.datanucleus.exceptions.NucleusDataStoreException;
 import org.datanucleus.store.ExecutionContext;
-import org.scale7.cassandra.pelops.Mutator;
+import org.datanucleus.store.ObjectProvider;
+import org.scale7.cassandra.pelops.Bytes;
 
+import com.spidertracks.datanucleus.cache.RowCacheManager;
 import com.spidertracks.datanucleus.client.Consistency;
+import com.spidertracks.datanucleus.mutate.WriteBehindQueue.PendingWrite;
 
 /**
  * Holds all mutations for the current execution context
  * 
+ * Every root write gets it's own batch and timestamp. When the root write
+ * ends it's batch is merged into the held batch, which keeps the timestamp of
+ * every column and row delete. A row or column deleted by one root write and
+ * written again by a later one isn't lost to a delete with the same
+ * timestamp.
+ * 
  * @author Todd Nine
  * 
  */
 public class ExecutionContextMutate extends ExecutionContextOp {
 
-	// operations of mutations to perform
-	private Mutator mutator;
+	// operations of mutations to perform, from every finished root write
+	private MutationBatch mutator;
+
+	// the batch of the root write in progress
+	private MutationBatch current;
+
+	// true if the mutation is held until the transaction commits
+	private boolean deferred;
+
+	// true if this lives until the transaction ends
+	private boolean transactional;
 
-	public ExecutionContextMutate(ExecutionContext ctx, Mutator mutator) {
+	// the rows written, so they can be removed from the row cache
+	private List<String> columnFamilies = new ArrayList<String>();
+	private List<Bytes> keys = new ArrayList<Bytes>();
+
+	// batches handed to the write behind queue that haven't been waited on
+	private List<PendingWrite> pendingWrites = new ArrayList<PendingWrite>();
+
+	// the relationship columns tracked since the last successful write
+	private List<ObjectProvider> trackedOwners = new ArrayList<ObjectProvider>();
+	private List<String> trackedKeys = new ArrayList<String>();
+
+	public ExecutionContextMutate(ExecutionContext ctx, MutationBatch mutator,
+			boolean deferred, boolean transactional) {
 		super(ctx);
 		this.mutator = mutator;
+		this.deferred = deferred;
+		this.transactional = transactional;
 	}
 
 	public void execute() throws Exception {
@@ -42,10 +80,187 @@ public class ExecutionContextMutate extends ExecutionContextOp {
 	}
 
 	/**
-	 * @return the mutator
+	 * Start the batch of a new root write. It's timestamp must be newer than
+	 * the timestamp of every root write before it
+	 * 
+	 * @param batch
+	 */
+	public void begin(MutationBatch batch) {
+		current = batch;
+	}
+
+	/**
+	 * Add the batch of the root write that ended to the held batch
+	 */
+	public void end() {
+		if (mutator.isEmpty()) {
+			mutator = current;
+		} else {
+			mutator.merge(current);
+		}
+
+		current = null;
+	}
+
+	/**
+	 * Hand the batch to the write behind queue instead of executing it
+	 * 
+	 * @param queue
+	 */
+	public void executeLater(WriteBehindQueue queue) {
+		PendingWrite write = queue.submit(mutator, Consistency.get());
+
+		// nothing will wait outside a transaction, failures are only logged
+		if (transactional) {
+			pendingWrites.add(write);
+		} else {
+			forgetTracked();
+		}
+	}
+
+	/**
+	 * Wait for every batch handed to the write behind queue
+	 * 
+	 * @throws NucleusDataStoreException
+	 *             If any of them failed
+	 */
+	public void awaitWrites() {
+		try {
+			for (PendingWrite write : pendingWrites) {
+				write.get();
+			}
+		} catch (ExecutionException e) {
+			forgetTracked();
+			throw new NucleusDataStoreException("Unable to write batch", e
+					.getCause());
+		} catch (InterruptedException e) {
+			forgetTracked();
+			Thread.currentThread().interrupt();
+			throw new NucleusDataStoreException(
+					"Interrupted waiting for writes", e);
+		} finally {
+			pendingWrites.clear();
+		}
+
+		// every write landed, the tracked columns are what is stored
+		keepTracked();
+	}
+
+	/**
+	 * Set the relationship columns of the object once this mutation is
+	 * written. They are dropped if the write fails, so the next write of the
+	 * field reads the columns instead of trusting them
+	 * 
+	 * @param op
+	 * @param key
+	 *            The associated value key of the field
+	 * @param columns
+	 */
+	public void track(ObjectProvider op, String key, Set<Bytes> columns) {
+		// later writes in this batch diff against these columns
+		op.setAssociatedValue(key, columns);
+
+		trackedOwners.add(op);
+		trackedKeys.add(key);
+	}
+
+	/**
+	 * The write succeeded. Keep the tracked columns unless background writes
+	 * still have to be waited on
+	 */
+	public void keepTracked() {
+		if (pendingWrites.isEmpty()) {
+			trackedOwners.clear();
+			trackedKeys.clear();
+		}
+	}
+
+	/**
+	 * The write failed or won't be waited on. Drop every column set tracked
+	 * since the last successful write
+	 */
+	public void forgetTracked() {
+		for (int i = 0; i < trackedOwners.size(); i++) {
+			trackedOwners.get(i).setAssociatedValue(trackedKeys.get(i), null);
+		}
+
+		trackedOwners.clear();
+		trackedKeys.clear();
+	}
+
+	/**
+	 * Start a new batch once this one has executed. Only used by
+	 * transactional mutations, which live for the whole transaction
+	 * 
+	 * @param mutator
+	 */
+	public void reset(MutationBatch mutator) {
+		this.mutator = mutator;
+
+		columnFamilies.clear();
+		keys.clear();
+	}
+
+	/**
+	 * @return true if this mutation is held until the transaction commits or
+	 *         flushes, rather than executed when the root write ends
+	 */
+	public boolean isDeferred() {
+		return deferred;
+	}
+
+	/**
+	 * @return true if this mutation lives until the transaction ends
+	 */
+	public boolean isTransactional() {
+		return transactional;
+	}
+
+	/**
+	 * @return the number of rows written since the last execute
+	 */
+	public int getRowCount() {
+		return keys.size();
+	}
+
+	/**
+	 * Delete the whole row when the mutation executes. Nothing is read
+	 * 
+	 * @param columnFamily
+	 * @param key
+	 */
+	public void deleteRow(String columnFamily, Bytes key) {
+		current.deleteRow(columnFamily, key);
+		addRow(columnFamily, key);
+	}
+
+	/**
+	 * Record that the row is written by this mutation
+	 * 
+	 * @param columnFamily
+	 * @param key
+	 */
+	public void addRow(String columnFamily, Bytes key) {
+		columnFamilies.add(columnFamily);
+		keys.add(key);
+	}
+
+	/**
+	 * Remove every row written by this mutation from the cache
+	 * 
+	 * @param cache
+	 */
+	public void invalidate(RowCacheManager cache) {
+		for (int i = 0; i < keys.size(); i++) {
+			cache.invalidate(columnFamilies.get(i), keys.get(i));
+		}
+	}
+
+	/**
+	 * @return the batch of the root write in progress
 	 */
-	public Mutator getMutator() {
-		return mutator;
+	public MutationBatch getMutator() {
+		return current;
 	}
 
 }
@@ -61,4 +61,11 @@ public abstract class ExecutionContextOp {
 		return count == 0;
 
 	}
+
+	/**
+	 * @return true if an instance is still being written
+	 */
+	public boolean hasInstances() {
+		return count > 0;
+	}
 }
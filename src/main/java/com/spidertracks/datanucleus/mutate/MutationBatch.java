@@ -0,0 +1,406 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.mutate;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.thrift.transport.TTransportException;
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.scale7.cassandra.pelops.Bytes;
+import org.scale7.cassandra.pelops.Pelops;
+import org.scale7.cassandra.pelops.pool.IThriftPool;
+import org.scale7.cassandra.pelops.pool.IThriftPool.IPooledConnection;
+
+import com.spidertracks.datanucleus.cache.RowCacheManager;
+
+/**
+ * The column writes and deletes for a set of rows, sent with batch_mutate.
+ * The methods mirror the Pelops Mutator so the field managers can write to
+ * either. Unlike the Mutator, writes are coalesced by row and column. Only the
+ * newest write or delete of a column is sent, and columns older than a
+ * deleted row are dropped. At most batchSize rows are sent in a single call.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class MutationBatch {
+
+	/**
+	 * Tries on a broken connection, as the pool's operand policy retries
+	 */
+	private static final int MAX_ATTEMPTS = 3;
+
+	private String poolName;
+
+	private long timestamp;
+
+	private int batchSize;
+
+	// key -> column family -> row, in the order rows were first written
+	private Map<Bytes, Map<String, RowMutation>> rows = new LinkedHashMap<Bytes, Map<String, RowMutation>>();
+
+	/**
+	 * 
+	 * @param poolName
+	 *            The pool to send the mutations to
+	 * @param timestamp
+	 *            The timestamp of new columns and deletes
+	 * @param batchSize
+	 *            The maximum number of rows to send in a single batch_mutate
+	 */
+	public MutationBatch(String poolName, long timestamp, int batchSize) {
+		this.poolName = poolName;
+		this.timestamp = timestamp;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Create a column with the timestamp of this batch
+	 * 
+	 * @param name
+	 * @param value
+	 * @return
+	 */
+	public Column newColumn(Bytes name, Bytes value) {
+		Column column = new Column();
+		column.setName(name.getBytes());
+
+		if (value != null) {
+			column.setValue(value.getBytes());
+		}
+
+		column.setTimestamp(timestamp);
+
+		return column;
+	}
+
+	/**
+	 * Write the column, or delete it if it has no value
+	 * 
+	 * @param columnFamily
+	 * @param key
+	 * @param column
+	 */
+	public void writeColumn(String columnFamily, Bytes key, Column column) {
+		writeColumn(columnFamily, key, column, true);
+	}
+
+	/**
+	 * Write the column, or delete it if it has no value and deleteIfNull is
+	 * set
+	 * 
+	 * @param columnFamily
+	 * @param key
+	 * @param column
+	 * @param deleteIfNull
+	 */
+	public void writeColumn(String columnFamily, Bytes key, Column column,
+			boolean deleteIfNull) {
+		if (column.value == null) {
+			if (deleteIfNull) {
+				deleteColumn(columnFamily, key,
+						Bytes.fromByteBuffer(column.name));
+			}
+
+			return;
+		}
+
+		getRow(columnFamily, key).put(column);
+	}
+
+	/**
+	 * Delete the column
+	 * 
+	 * @param columnFamily
+	 * @param key
+	 * @param name
+	 */
+	public void deleteColumn(String columnFamily, Bytes key, Bytes name) {
+		// a column without a value is a delete
+		Column column = new Column();
+		column.setName(name.getBytes());
+		column.setTimestamp(timestamp);
+
+		getRow(columnFamily, key).put(column);
+	}
+
+	/**
+	 * Delete the whole row
+	 * 
+	 * @param columnFamily
+	 * @param key
+	 */
+	public void deleteRow(String columnFamily, Bytes key) {
+		getRow(columnFamily, key).delete(timestamp);
+	}
+
+	/**
+	 * Add every mutation of a newer batch to this one. Columns and rows keep
+	 * the timestamps they were written with
+	 * 
+	 * @param other
+	 */
+	public void merge(MutationBatch other) {
+		for (Map.Entry<Bytes, Map<String, RowMutation>> row : other.rows
+				.entrySet()) {
+
+			for (RowMutation mutation : row.getValue().values()) {
+
+				RowMutation existing = getRow(mutation.columnFamily,
+						row.getKey());
+
+				if (mutation.deletedAt != Long.MIN_VALUE) {
+					existing.delete(mutation.deletedAt);
+				}
+
+				for (Column column : mutation.columns.values()) {
+					existing.put(column);
+				}
+			}
+		}
+
+		timestamp = Math.max(timestamp, other.timestamp);
+	}
+
+	/**
+	 * @return the number of rows written or deleted
+	 */
+	public int getRowCount() {
+		return rows.size();
+	}
+
+	/**
+	 * @return true if nothing has been written or deleted
+	 */
+	public boolean isEmpty() {
+		return rows.isEmpty();
+	}
+
+	/**
+	 * Remove every row in this batch from the cache
+	 * 
+	 * @param cache
+	 */
+	public void invalidate(RowCacheManager cache) {
+		for (Map.Entry<Bytes, Map<String, RowMutation>> row : rows.entrySet()) {
+			for (String columnFamily : row.getValue().keySet()) {
+				cache.invalidate(columnFamily, row.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Send the mutations, at most batchSize rows per call
+	 * 
+	 * @param consistency
+	 * @throws Exception
+	 */
+	public void execute(ConsistencyLevel consistency) throws Exception {
+		Map<ByteBuffer, Map<String, List<Mutation>>> chunk = new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+
+		for (Map.Entry<Bytes, Map<String, RowMutation>> row : rows.entrySet()) {
+
+			Map<String, List<Mutation>> mutations = new HashMap<String, List<Mutation>>();
+
+			for (RowMutation mutation : row.getValue().values()) {
+				mutations.put(mutation.columnFamily, mutation.toMutations());
+			}
+
+			chunk.put(row.getKey().getBytes(), mutations);
+
+			if (chunk.size() == batchSize) {
+				send(chunk, consistency);
+				chunk = new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+			}
+		}
+
+		if (chunk.size() > 0) {
+			send(chunk, consistency);
+		}
+	}
+
+	/**
+	 * Send a single batch_mutate
+	 * 
+	 * @param chunk
+	 * @param consistency
+	 * @throws Exception
+	 */
+	private void send(Map<ByteBuffer, Map<String, List<Mutation>>> chunk,
+			ConsistencyLevel consistency) throws Exception {
+		IThriftPool pool = Pelops.getDbConnPool(poolName);
+
+		if (pool == null) {
+			throw new NucleusDataStoreException("No pool named " + poolName);
+		}
+
+		for (int attempt = 1;; attempt++) {
+			IPooledConnection connection = pool.getConnection();
+
+			try {
+				connection.getAPI().batch_mutate(chunk, consistency);
+				return;
+			} catch (TTransportException e) {
+				// don't hand a broken socket back to the pool
+				connection.corrupted();
+
+				if (attempt == MAX_ATTEMPTS) {
+					throw e;
+				}
+			} finally {
+				connection.release();
+			}
+		}
+	}
+
+	/**
+	 * Get the mutations for the row, creating them if required
+	 * 
+	 * @param columnFamily
+	 * @param key
+	 * @return
+	 */
+	private RowMutation getRow(String columnFamily, Bytes key) {
+		Map<String, RowMutation> row = rows.get(key);
+
+		if (row == null) {
+			row = new HashMap<String, RowMutation>();
+			rows.put(key, row);
+		}
+
+		RowMutation mutation = row.get(columnFamily);
+
+		if (mutation == null) {
+			mutation = new RowMutation(columnFamily);
+			row.put(columnFamily, mutation);
+		}
+
+		return mutation;
+	}
+
+	/**
+	 * The newest write or delete of each column in a row, and the row delete
+	 */
+	private static class RowMutation {
+
+		private String columnFamily;
+
+		// the timestamp the row was deleted at
+		private long deletedAt = Long.MIN_VALUE;
+
+		private Map<ByteBuffer, Column> columns = new LinkedHashMap<ByteBuffer, Column>();
+
+		private RowMutation(String columnFamily) {
+			this.columnFamily = columnFamily;
+		}
+
+		/**
+		 * Keep the column unless a newer one is already held
+		 * 
+		 * @param column
+		 */
+		private void put(Column column) {
+			// the row delete shadows it
+			if (column.timestamp <= deletedAt) {
+				return;
+			}
+
+			Column existing = columns.get(column.name);
+
+			if (existing != null && existing.timestamp > column.timestamp) {
+				return;
+			}
+
+			columns.put(column.name, column);
+		}
+
+		/**
+		 * Delete the row, dropping every column it shadows
+		 * 
+		 * @param timestamp
+		 */
+		private void delete(long timestamp) {
+			deletedAt = Math.max(deletedAt, timestamp);
+
+			List<ByteBuffer> shadowed = new ArrayList<ByteBuffer>();
+
+			for (Column column : columns.values()) {
+				if (column.timestamp <= deletedAt) {
+					shadowed.add(column.name);
+				}
+			}
+
+			for (ByteBuffer name : shadowed) {
+				columns.remove(name);
+			}
+		}
+
+		/**
+		 * Convert to thrift mutations
+		 * 
+		 * @return
+		 */
+		private List<Mutation> toMutations() {
+			List<Mutation> mutations = new ArrayList<Mutation>(
+					columns.size() + 1);
+
+			// no predicate or super column deletes the whole row
+			if (deletedAt != Long.MIN_VALUE) {
+				Deletion deletion = new Deletion();
+				deletion.setTimestamp(deletedAt);
+
+				Mutation mutation = new Mutation();
+				mutation.setDeletion(deletion);
+				mutations.add(mutation);
+			}
+
+			for (Column column : columns.values()) {
+				Mutation mutation = new Mutation();
+
+				if (column.value == null) {
+					SlicePredicate predicate = new SlicePredicate();
+					predicate.addToColumn_names(column.name);
+
+					Deletion deletion = new Deletion();
+					deletion.setTimestamp(column.timestamp);
+					deletion.setPredicate(predicate);
+
+					mutation.setDeletion(deletion);
+				} else {
+					mutation.setColumn_or_supercolumn(new ColumnOrSuperColumn()
+							.setColumn(column));
+				}
+
+				mutations.add(mutation);
+			}
+
+			return mutations;
+		}
+	}
+}
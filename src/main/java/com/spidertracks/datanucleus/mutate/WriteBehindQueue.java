@@ -0,0 +1,225 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.mutate;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.datanucleus.util.NucleusLogger;
+
+import com.spidertracks.datanucleus.cache.RowCacheManager;
+
+/**
+ * Sends batches on a small pool of background threads so the writing thread
+ * doesn't wait on cassandra. A batch submitted while the previous one is still
+ * queued is merged into it, so repeated writes to the same row and column are
+ * only sent once. The queue is bounded, when it is full the writing thread
+ * sends the batch itself.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class WriteBehindQueue {
+
+	private ThreadPoolExecutor executor;
+
+	private RowCacheManager cache;
+
+	private int batchSize;
+
+	// the last batch queued, merged into until a thread picks it up
+	private PendingWrite tail;
+
+	/**
+	 * 
+	 * @param threads
+	 *            The number of threads sending batches
+	 * @param capacity
+	 *            The number of batches that can wait to be sent
+	 * @param batchSize
+	 *            Batches aren't merged past this many rows
+	 * @param cache
+	 *            The cache to invalidate once a batch is written
+	 */
+	public WriteBehindQueue(int threads, int capacity, int batchSize,
+			RowCacheManager cache) {
+		this.batchSize = batchSize;
+		this.cache = cache;
+
+		ThreadFactory factory = new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "cassandra-write-"
+						+ count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+
+		// a full or shut down queue sends on the writing thread, unlike
+		// CallerRunsPolicy which drops the batch once shut down
+		RejectedExecutionHandler sendNow = new RejectedExecutionHandler() {
+
+			@Override
+			public void rejectedExecution(Runnable r,
+					ThreadPoolExecutor executor) {
+				r.run();
+			}
+		};
+
+		executor = new ThreadPoolExecutor(threads, threads, 60,
+				TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(capacity),
+				factory, sendNow);
+
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queue the batch to be sent
+	 * 
+	 * @param batch
+	 * @param consistency
+	 *            The consistency of the writing thread
+	 * @return The write the batch will be sent with
+	 */
+	public PendingWrite submit(MutationBatch batch, ConsistencyLevel consistency) {
+		PendingWrite write;
+
+		synchronized (this) {
+			if (tail != null && tail.send.merge(batch, consistency)) {
+				return tail;
+			}
+
+			write = new PendingWrite(new Send(batch, consistency));
+			tail = write;
+		}
+
+		executor.execute(write);
+
+		return write;
+	}
+
+	/**
+	 * Send everything still queued and stop the threads
+	 */
+	public void shutdown() {
+		executor.shutdown();
+
+		try {
+			if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+				NucleusLogger.DATASTORE
+						.warn("Timed out sending queued cassandra writes");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A batch waiting to be sent. Can be waited on to find out if it was
+	 * written
+	 */
+	public class PendingWrite extends FutureTask<Object> {
+
+		private Send send;
+
+		private PendingWrite(Send send) {
+			super(send);
+			this.send = send;
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled()) {
+				return;
+			}
+
+			try {
+				get();
+			} catch (ExecutionException e) {
+				NucleusLogger.DATASTORE.error("Unable to write batch", e
+						.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Sends a batch, accepting newer batches until it starts
+	 */
+	private class Send implements Callable<Object> {
+
+		private MutationBatch batch;
+
+		private ConsistencyLevel consistency;
+
+		private boolean started = false;
+
+		private Send(MutationBatch batch, ConsistencyLevel consistency) {
+			this.batch = batch;
+			this.consistency = consistency;
+		}
+
+		/**
+		 * Merge a newer batch into this one if it hasn't been started
+		 * 
+		 * @param next
+		 * @param nextConsistency
+		 * @return False if the batch must be queued by itself
+		 */
+		private synchronized boolean merge(MutationBatch next,
+				ConsistencyLevel nextConsistency) {
+			if (started || nextConsistency != consistency
+					|| batch.getRowCount() >= batchSize) {
+				return false;
+			}
+
+			batch.merge(next);
+
+			return true;
+		}
+
+		@Override
+		public Object call() throws Exception {
+			synchronized (this) {
+				started = true;
+			}
+
+			try {
+				batch.execute(consistency);
+			} finally {
+				// readers may have cached the row before the write landed
+				batch.invalidate(cache);
+			}
+
+			return null;
+		}
+	}
+}
@@ -21,19 +21,16 @@ import static com.spidertracks.datanucleus.utils.MetaDataUtils.getDiscriminatorC
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Map.Entry;
 
 import javax.jdo.identity.SingleFieldIdentity;
 
-import org.apache.cassandra.thrift.Column;
-import org.apache.cassandra.thrift.KeyRange;
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.exceptions.NucleusDataStoreException;
-import org.datanucleus.exceptions.NucleusException;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.metadata.DiscriminatorMetaData;
 import org.datanucleus.query.evaluator.JPQLEvaluator;
@@ -44,13 +41,12 @@ import org.datanucleus.store.query.AbstractJPQLQuery;
 import org.datanucleus.util.ClassUtils;
 import org.datanucleus.util.NucleusLogger;
 import org.scale7.cassandra.pelops.Bytes;
-import org.scale7.cassandra.pelops.Pelops;
-import org.scale7.cassandra.pelops.Selector;
 
+import com.spidertracks.datanucleus.BatchObjectFetcher;
 import com.spidertracks.datanucleus.CassandraStoreManager;
-import com.spidertracks.datanucleus.client.Consistency;
 import com.spidertracks.datanucleus.convert.ByteConverterContext;
 import com.spidertracks.datanucleus.query.runtime.Columns;
+import com.spidertracks.datanucleus.query.runtime.KeyRangeIterator;
 import com.spidertracks.datanucleus.query.runtime.Operand;
 import com.spidertracks.datanucleus.utils.MetaDataUtils;
 
@@ -60,9 +56,6 @@ public class JPQLQuery extends AbstractJPQLQuery
      *
      */
     private static final long serialVersionUID = 1L;
-    public boolean nonIndexedQuery = true;
-    private CassandraQueryExpressionEvaluator evaluator;
-    private static int DEFAULT_MAX = 1000;
 
     /**
      * Creates a new query instance with the given execution context
@@ -122,6 +115,11 @@ public class JPQLQuery extends AbstractJPQLQuery
 
         Set<Columns> candidateKeys = null;
 
+        Collection<?> results = null;
+
+        // true once the filter has been applied to the candidates
+        boolean filtered = false;
+
         Bytes idColumnBytes = MetaDataUtils.getIdentityColumn(acmd);
         DiscriminatorMetaData discriminator = null;
 
@@ -141,11 +139,12 @@ public class JPQLQuery extends AbstractJPQLQuery
             selectColumns = new Bytes[] { idColumnBytes };
         }
 
-        int range = DEFAULT_MAX;
+        // every index match is read a page at a time. The range can't limit
+        // the read since the ordering is applied in memory
+        int pageSize = ((CassandraStoreManager) ec.getStoreManager())
+                .getScanPageSize();
 
         if (this.getRange() != null) {
-            range = (int) this.getRangeToExcl();
-
             if (this.getOrdering() == null) {
                 throw new NucleusDataStoreException(
                         "You cannot invoke a without an ordering expression against Cassandra. Results will be randomly ordered from Cassnadra and need order to page");
@@ -153,40 +152,58 @@ public class JPQLQuery extends AbstractJPQLQuery
             }
         }
 
-        evaluator = new CassandraQueryExpressionEvaluator(acmd, range, byteContext, parameters);
-        if(filter != null){
-            checkFilterValidity(filter);
+        // results need ordering, grouping or a result clause applied in memory
+        boolean resultsInMemory = this.getOrdering() != null
+                || this.getGrouping() != null || this.getResult() != null
+                || this.getResultClass() != null || this.getRange() != null;
+
+        QueryPlan plan = QueryPlan.SCAN;
+
+        if (filter != null) {
+            plan = getPlan(filter, acmd, clr, descriminiatorCol, byteContext);
         }
 
-        if (filter != null && !nonIndexedQuery) {
-            Operand opTree = (Operand) filter.evaluate(evaluator);
+        // a query was specified, perform a filter with secondary cassandra
+        // indexes
+        if (plan.isIndexed()) {
 
-         // there's a discriminator so be sure to include it
-            if (acmd.hasDiscriminatorStrategy()) {
-                List<Bytes> descriminatorValues = MetaDataUtils
-                        .getDescriminatorValues(acmd.getFullClassName(), clr,
-                                ec, byteContext);
+            Operand opTree = plan.bind(parameters, byteContext, pageSize);
 
-                opTree = opTree.optimizeDescriminator(descriminiatorCol,
-                        descriminatorValues);
-            }
-         // perform a query rewrite to take into account descriminator values
-            opTree.performQuery(poolName, columnFamily, selectColumns);
+            opTree.performQuery(poolName, columnFamily, selectColumns,
+                    ((CassandraStoreManager) ec.getStoreManager())
+                            .getQueryExecutor());
 
             candidateKeys = opTree.getCandidateKeys();
-        }else {
-            candidateKeys = getAll(poolName, columnFamily, selectColumns, range);
+
+            // anything the indexes couldn't read is filtered in memory
+            filtered = plan.isExact();
+
+            if (filtered && !resultsInMemory) {
+                return getLazyResults(candidateKeys.iterator(), acmd, clr,
+                        idColumnBytes, descriminiatorCol, byteContext);
+            }
+
+            results = getObjectsOfCandidateType(candidateKeys, acmd, clr,
+                    subclasses, idColumnBytes, descriminiatorCol, byteContext);
+        } else if (filter == null && !resultsInMemory) {
+            return getLazyResults(new KeyRangeIterator(poolName, columnFamily,
+                    selectColumns, pageSize), acmd, clr, idColumnBytes,
+                    descriminiatorCol, byteContext);
+        } else {
+            results = getAll(poolName, columnFamily, selectColumns, filter,
+                    parameters, acmd, clr, idColumnBytes, descriminiatorCol,
+                    byteContext);
+
+            filtered = true;
         }
-        Collection<?> results = getObjectsOfCandidateType(candidateKeys, acmd,
-                clr, subclasses, idColumnBytes, descriminiatorCol, byteContext);
 
-        if (this.getOrdering() != null || this.getGrouping() != null || nonIndexedQuery) {
+        if (!filtered || resultsInMemory) {
 
             // Apply any result restrictions to the results
             JavaQueryEvaluator resultMapper = new JPQLEvaluator(this, results,
                     compilation, parameters, ec.getClassLoaderResolver());
 
-            results = resultMapper.execute(true, true, true, true, true);
+            results = resultMapper.execute(!filtered, true, true, true, true);
 
         }
 
@@ -198,6 +215,49 @@ public class JPQLQuery extends AbstractJPQLQuery
         return results;
     }
 
+    /**
+     * Get the plan for this query from the store manager's cache, planning it
+     * on the first execution
+     *
+     * @param filter
+     * @param acmd
+     * @param clr
+     * @param descriminatorColumn
+     * @param byteContext
+     * @return
+     */
+    private QueryPlan getPlan(Expression filter, AbstractClassMetaData acmd,
+            ClassLoaderResolver clr, Bytes descriminatorColumn,
+            ByteConverterContext byteContext) {
+
+        QueryPlanCache cache = ((CassandraStoreManager) ec.getStoreManager())
+                .getQueryPlanCache();
+
+        String key = QueryPlanCache.getKey("JPQL", candidateClass,
+                getSingleStringQuery());
+
+        QueryPlan plan = cache.get(key);
+
+        if (plan != null) {
+            return plan;
+        }
+
+        plan = new QueryPlanner(acmd, compilation.getCandidateAlias(),
+                byteContext).plan(filter);
+
+        // there's a discriminator so be sure to include it
+        if (acmd.hasDiscriminatorStrategy()) {
+            List<Bytes> descriminatorValues = MetaDataUtils
+                    .getDescriminatorValues(acmd.getFullClassName(), clr, ec,
+                            byteContext);
+
+            plan = plan.withDiscriminator(descriminatorColumn,
+                    descriminatorValues);
+        }
+
+        return cache.put(key, plan);
+    }
+
     /**
      * Used to load specific keys
      *
@@ -219,7 +279,7 @@ public class JPQLQuery extends AbstractJPQLQuery
         // final AbstractClassMetaData acmd =
         // ec.getMetaDataManager().getMetaDataForClass(candidateClass, clr);
 
-        List<Object> results = new ArrayList<Object>(keys.size());
+        List<Object> identities = new ArrayList<Object>(keys.size());
         // String tempKey = null;
 
         for (Columns idBytes : keys) {
@@ -253,92 +313,109 @@ public class JPQLQuery extends AbstractJPQLQuery
                 continue;
             }
 
-            Object returned = ec.findObject(identity, true, subclasses,
-                    candidateClass.getName());
+            identities.add(identity);
+        }
+
+        // load all candidates with multigets instead of a read per object
+        return new BatchObjectFetcher(ec).fetchObjects(identities,
+                getIgnoreCache());
+
+    }
+
+    /**
+     * Wrap the candidate keys in a result that loads objects a page at a time
+     * as the caller iterates over it
+     * 
+     * @param candidates
+     * @param acmd
+     * @param clr
+     * @param identityColumn
+     * @param descriminatorColumn
+     * @param byteContext
+     * @return
+     */
+    private List<?> getLazyResults(Iterator<Columns> candidates,
+            final AbstractClassMetaData acmd, final ClassLoaderResolver clr,
+            final Bytes identityColumn, final Bytes descriminatorColumn,
+            final ByteConverterContext byteContext) {
+
+        int pageSize = ((CassandraStoreManager) ec.getStoreManager())
+                .getMultigetSize();
 
-            if (returned != null) {
-                results.add(returned);
+        List<?> results = new LazyQueryResult(candidates, getFetchPlan(),
+                pageSize) {
+
+            @Override
+            protected List<?> loadObjects(Set<Columns> keys) {
+                return getObjectsOfCandidateType(keys, acmd, clr, subclasses,
+                        identityColumn, descriminatorColumn, byteContext);
             }
+
+        };
+
+        if (NucleusLogger.QUERY.isDebugEnabled()) {
+            NucleusLogger.QUERY.debug("Returning lazy query result for "
+                    + getSingleStringQuery());
         }
 
         return results;
-
     }
 
     /**
-     * Get all keys from a given column family. Used ranges to set the max
-     * amount
-     *
+     * Scan every row in the column family a page at a time. Each page of keys is
+     * loaded and run through the filter before the next page is read, so only
+     * the matching objects are retained rather than the whole column family
+     * 
      * @param poolName
      * @param cfName
      * @param selectColumns
+     * @param filter
+     *            The filter to apply to each page, may be null
+     * @param parameters
      * @return
-     * @throws Exception
      */
-    private Set<Columns> getAll(String poolName, String cfName,
-            Bytes[] selectColumns, int maxSize) {
+    @SuppressWarnings("rawtypes")
+    private List<Object> getAll(String poolName, String cfName,
+            Bytes[] selectColumns, Expression filter, Map parameters,
+            AbstractClassMetaData acmd, ClassLoaderResolver clr,
+            Bytes identityColumn, Bytes descriminatorColumn,
+            ByteConverterContext byteContext) {
 
-        Set<Columns> candidateKeys = new HashSet<Columns>();
+        int pageSize = ((CassandraStoreManager) ec.getStoreManager())
+                .getScanPageSize();
 
-        KeyRange range = new KeyRange();
-        range.setStart_key(new byte[] {});
-        range.setEnd_key(new byte[] {});
-        range.setCount(maxSize);
+        KeyRangeIterator rows = new KeyRangeIterator(poolName, cfName,
+                selectColumns, pageSize);
 
-        Map<Bytes, List<Column>> results;
+        List<Object> results = new ArrayList<Object>();
 
-        try {
-            results = Pelops.createSelector(poolName).getColumnsFromRows(
-                    cfName, range, Selector.newColumnsPredicate(selectColumns),
-                    Consistency.get());
-        } catch (Exception e) {
-            throw new NucleusException("Error scanning rows", e);
-        }
+        Set<Columns> page = new LinkedHashSet<Columns>();
 
-        Columns cols;
+        while (rows.hasNext()) {
 
-        for (Entry<Bytes, List<Column>> entry : results.entrySet()) {
+            page.add(rows.next());
 
-            if (entry.getValue().size() == 0) {
+            if (page.size() < pageSize && rows.hasNext()) {
                 continue;
             }
 
-            cols = new Columns(entry.getKey());
+            Collection<?> candidates = getObjectsOfCandidateType(page, acmd,
+                    clr, subclasses, identityColumn, descriminatorColumn,
+                    byteContext);
 
-            for (Column currentCol : entry.getValue()) {
+            if (filter != null) {
+                JavaQueryEvaluator pageFilter = new JPQLEvaluator(this,
+                        candidates, compilation, parameters, clr);
 
-                cols.addResult(currentCol);
+                candidates = pageFilter.execute(true, false, false, false,
+                        false);
             }
 
-            candidateKeys.add(cols);
+            results.addAll(candidates);
+
+            page.clear();
         }
 
-        return candidateKeys;
+        return results;
     }
-
-
-    /**
-     * checks whether the filter has only non indexed fields
-     * @param filter
-     */
-     public void checkFilterValidity(Expression filter){
-         AnnotationEvaluator ae = new AnnotationEvaluator(candidateClass);
-         List<String> annotationlist = ae.getAnnotatedFields("javax.jdo.annotations.Index");
-
-         List<String> expressionlist = evaluator.getPrimaryExpressions(filter);
-         if(annotationlist == null){
-             nonIndexedQuery =true;
-             return;
-         }
-         if(expressionlist == null){
-             return;
-         }
-         for(String ex:expressionlist){
-             if(annotationlist.indexOf(ex)!=-1){
-                 nonIndexedQuery = false;
-                 return;
-             }
-         }
-
-     }
 }
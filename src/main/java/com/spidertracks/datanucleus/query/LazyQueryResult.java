@@ -0,0 +1,216 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.query;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.datanucleus.FetchPlan;
+import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.store.query.QueryResult;
+
+import com.spidertracks.datanucleus.query.runtime.Columns;
+
+/**
+ * A query result that only loads objects as the caller iterates. Candidate
+ * keys are consumed one page at a time, and each page is turned into objects
+ * with {@link #loadObjects(Set)}. The page size is taken from the fetch size
+ * of the query's fetch plan. A greedy fetch size loads every candidate on
+ * first access.
+ *
+ * @author Todd Nine
+ *
+ */
+public abstract class LazyQueryResult extends AbstractList<Object> implements
+		QueryResult {
+
+	private Iterator<Columns> candidates;
+
+	private List<Object> loaded = new ArrayList<Object>();
+
+	private int pageSize;
+
+	private boolean closed = false;
+
+	/**
+	 *
+	 * @param candidates
+	 *            The candidate keys to load
+	 * @param fetchPlan
+	 *            The fetch plan of the query
+	 * @param defaultPageSize
+	 *            The page size to use when the fetch size is left to us
+	 */
+	public LazyQueryResult(Iterator<Columns> candidates, FetchPlan fetchPlan,
+			int defaultPageSize) {
+		this.candidates = candidates;
+
+		int fetchSize = fetchPlan.getFetchSize();
+
+		if (fetchSize == FetchPlan.FETCH_SIZE_GREEDY) {
+			this.pageSize = Integer.MAX_VALUE;
+		} else if (fetchSize == FetchPlan.FETCH_SIZE_OPTIMAL) {
+			this.pageSize = defaultPageSize;
+		} else {
+			this.pageSize = fetchSize;
+		}
+	}
+
+	/**
+	 * Load the objects for a page of candidate keys. Keys that are not
+	 * valid candidates should not be returned
+	 *
+	 * @param keys
+	 * @return
+	 */
+	protected abstract List<?> loadObjects(Set<Columns> keys);
+
+	@Override
+	public Object get(int index) {
+		assertOpen();
+
+		while (index >= loaded.size() && loadPage())
+			;
+
+		if (index >= loaded.size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ loaded.size());
+		}
+
+		return loaded.get(index);
+	}
+
+	@Override
+	public int size() {
+		assertOpen();
+
+		while (loadPage())
+			;
+
+		return loaded.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return !iterator().hasNext();
+	}
+
+	/**
+	 * Iterate without calling size() as the AbstractList iterator does, so
+	 * only the pages we walk over are loaded
+	 */
+	@Override
+	public Iterator<Object> iterator() {
+		assertOpen();
+
+		return new Iterator<Object>() {
+
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				assertOpen();
+
+				while (next >= loaded.size() && loadPage())
+					;
+
+				return next < loaded.size();
+			}
+
+			@Override
+			public Object next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				return loaded.get(next++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException(
+						"Query results are read only");
+			}
+
+		};
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		candidates = null;
+		loaded.clear();
+	}
+
+	/**
+	 * Load everything that is left so the results can still be read once the
+	 * execution context is gone
+	 */
+	@Override
+	public void disconnect() {
+		if (closed) {
+			return;
+		}
+
+		while (loadPage())
+			;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o == this;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(this);
+	}
+
+	/**
+	 * Load the next page of candidates. Returns false when there are no
+	 * candidates left
+	 *
+	 * @return
+	 */
+	private boolean loadPage() {
+		if (!candidates.hasNext()) {
+			return false;
+		}
+
+		Set<Columns> page = new LinkedHashSet<Columns>();
+
+		while (page.size() < pageSize && candidates.hasNext()) {
+			page.add(candidates.next());
+		}
+
+		loaded.addAll(loadObjects(page));
+
+		return true;
+	}
+
+	private void assertOpen() {
+		if (closed) {
+			throw new NucleusUserException("Query result has been closed");
+		}
+	}
+}
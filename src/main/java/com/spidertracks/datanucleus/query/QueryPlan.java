@@ -0,0 +1,286 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.thrift.IndexExpression;
+import org.apache.cassandra.thrift.IndexOperator;
+import org.datanucleus.query.QueryUtils;
+import org.datanucleus.query.expression.ParameterExpression;
+import org.scale7.cassandra.pelops.Bytes;
+import org.scale7.cassandra.pelops.Selector;
+
+import com.spidertracks.datanucleus.convert.ByteConverterContext;
+import com.spidertracks.datanucleus.query.runtime.AndOperand;
+import com.spidertracks.datanucleus.query.runtime.EqualityOperand;
+import com.spidertracks.datanucleus.query.runtime.Operand;
+import com.spidertracks.datanucleus.query.runtime.OrOperand;
+
+/**
+ * The secondary index reads chosen by the {@link QueryPlanner} for a filter.
+ * The plan is a template, parameter values are only converted to bytes when
+ * the plan is bound to a new {@link Operand} tree for an execution. Plans are
+ * immutable and can be shared between executions.
+ *
+ * @author Todd Nine
+ *
+ */
+public class QueryPlan {
+
+	/**
+	 * The plan for filters that can't be read from an index
+	 */
+	public static final QueryPlan SCAN = new QueryPlan(null, false);
+
+	private final Node root;
+
+	private final boolean exact;
+
+	/**
+	 *
+	 * @param root
+	 *            The root of the index reads
+	 * @param exact
+	 *            True if the index reads return only rows matching the whole
+	 *            filter
+	 */
+	QueryPlan(Node root, boolean exact) {
+		this.root = root;
+		this.exact = exact;
+	}
+
+	/**
+	 * @return False if the column family must be scanned
+	 */
+	public boolean isIndexed() {
+		return root != null;
+	}
+
+	/**
+	 * @return True if the index reads return only the rows that match the
+	 *         filter. If false, the filter must also be evaluated in memory
+	 *         against the candidates
+	 */
+	public boolean isExact() {
+		return exact;
+	}
+
+	/**
+	 * Restrict every index read to the given discriminator values. A read is
+	 * split into an || of reads when there is more than one value
+	 *
+	 * @param descriminatorColumn
+	 * @param possibleValues
+	 * @return
+	 */
+	public QueryPlan withDiscriminator(Bytes descriminatorColumn,
+			List<Bytes> possibleValues) {
+		if (root == null) {
+			return this;
+		}
+
+		return new QueryPlan(root.withDiscriminator(descriminatorColumn,
+				possibleValues), exact);
+	}
+
+	/**
+	 * Create a new operand tree for a single execution of the plan
+	 *
+	 * @param parameters
+	 *            The parameters of this execution
+	 * @param byteContext
+	 * @param pageSize
+	 *            The number of rows to read per page of the index
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	public Operand bind(Map parameters, ByteConverterContext byteContext,
+			int pageSize) {
+		return root.bind(parameters, byteContext, pageSize);
+	}
+
+	/**
+	 * A node in the plan template
+	 */
+	abstract static class Node {
+
+		@SuppressWarnings("rawtypes")
+		abstract Operand bind(Map parameters,
+				ByteConverterContext byteContext, int pageSize);
+
+		abstract Node withDiscriminator(Bytes descriminatorColumn,
+				List<Bytes> possibleValues);
+	}
+
+	/**
+	 * A single get_indexed_slices read. The first expression drives the index
+	 * read, the rest are filtered by cassandra
+	 */
+	static class IndexNode extends Node {
+
+		private final List<Slot> slots;
+
+		IndexNode(List<Slot> slots) {
+			this.slots = slots;
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		Operand bind(Map parameters, ByteConverterContext byteContext,
+				int pageSize) {
+			EqualityOperand op = new EqualityOperand(pageSize);
+
+			for (Slot slot : slots) {
+				op.addExpression(slot.bind(parameters, byteContext));
+			}
+
+			return op;
+		}
+
+		@Override
+		Node withDiscriminator(Bytes descriminatorColumn,
+				List<Bytes> possibleValues) {
+			return withDiscriminator(descriminatorColumn, possibleValues, 0,
+					possibleValues.size());
+		}
+
+		/**
+		 * Build a balanced || of reads for the values between start and end
+		 */
+		private Node withDiscriminator(Bytes descriminatorColumn,
+				List<Bytes> possibleValues, int start, int end) {
+
+			if (end - start == 1) {
+				List<Slot> withValue = new ArrayList<Slot>(slots);
+				withValue.add(new Slot(descriminatorColumn, IndexOperator.EQ,
+						possibleValues.get(start), null));
+
+				return new IndexNode(withValue);
+			}
+
+			int middle = (start + end) / 2;
+
+			return new OrNode(withDiscriminator(descriminatorColumn,
+					possibleValues, start, middle), withDiscriminator(
+					descriminatorColumn, possibleValues, middle, end));
+		}
+	}
+
+	/**
+	 * Intersection of two reads
+	 */
+	static class AndNode extends Node {
+
+		private final Node left;
+		private final Node right;
+
+		AndNode(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		Operand bind(Map parameters, ByteConverterContext byteContext,
+				int pageSize) {
+			AndOperand op = new AndOperand();
+			op.setLeft(left.bind(parameters, byteContext, pageSize));
+			op.setRight(right.bind(parameters, byteContext, pageSize));
+			return op;
+		}
+
+		@Override
+		Node withDiscriminator(Bytes descriminatorColumn,
+				List<Bytes> possibleValues) {
+			return new AndNode(left.withDiscriminator(descriminatorColumn,
+					possibleValues), right.withDiscriminator(
+					descriminatorColumn, possibleValues));
+		}
+	}
+
+	/**
+	 * Union of two reads
+	 */
+	static class OrNode extends Node {
+
+		private final Node left;
+		private final Node right;
+
+		OrNode(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		Operand bind(Map parameters, ByteConverterContext byteContext,
+				int pageSize) {
+			OrOperand op = new OrOperand();
+			op.setLeft(left.bind(parameters, byteContext, pageSize));
+			op.setRight(right.bind(parameters, byteContext, pageSize));
+			return op;
+		}
+
+		@Override
+		Node withDiscriminator(Bytes descriminatorColumn,
+				List<Bytes> possibleValues) {
+			return new OrNode(left.withDiscriminator(descriminatorColumn,
+					possibleValues), right.withDiscriminator(
+					descriminatorColumn, possibleValues));
+		}
+	}
+
+	/**
+	 * A single index expression. The value is either a literal that has
+	 * already been converted, or a parameter that is converted when bound
+	 */
+	static class Slot {
+
+		private final Bytes column;
+		private final IndexOperator op;
+		private final Bytes value;
+		private final ParameterExpression parameter;
+
+		Slot(Bytes column, IndexOperator op, Bytes value,
+				ParameterExpression parameter) {
+			this.column = column;
+			this.op = op;
+			this.value = value;
+			this.parameter = parameter;
+		}
+
+		IndexOperator getOp() {
+			return op;
+		}
+
+		@SuppressWarnings("rawtypes")
+		IndexExpression bind(Map parameters, ByteConverterContext byteContext) {
+			Bytes bound = value;
+
+			if (parameter != null) {
+				bound = byteContext.getBytes(QueryUtils
+						.getValueForParameterExpression(parameters, parameter));
+			}
+
+			return Selector.newIndexExpression(column, op, bound);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.query;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the plan of each query so repeated executions only bind their
+ * parameters. Plans are keyed by the query language, candidate class and
+ * query string. Once the cache is full it is emptied, so queries built by
+ * concatenating literals can't grow it without bound.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class QueryPlanCache {
+
+	private final ConcurrentMap<String, QueryPlan> plans = new ConcurrentHashMap<String, QueryPlan>();
+
+	private final int maxSize;
+
+	/**
+	 * 
+	 * @param maxSize
+	 *            The maximum number of plans to hold. 0 disables the cache
+	 */
+	public QueryPlanCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Get the cached plan
+	 * 
+	 * @param key
+	 * @return The plan or null if it hasn't been cached
+	 */
+	public QueryPlan get(String key) {
+		return plans.get(key);
+	}
+
+	/**
+	 * Cache the plan. If another thread has already cached a plan for the key
+	 * that plan is returned
+	 * 
+	 * @param key
+	 * @param plan
+	 * @return
+	 */
+	public QueryPlan put(String key, QueryPlan plan) {
+		if (maxSize <= 0) {
+			return plan;
+		}
+
+		if (plans.size() >= maxSize) {
+			plans.clear();
+		}
+
+		QueryPlan existing = plans.putIfAbsent(key, plan);
+
+		return existing == null ? plan : existing;
+	}
+
+	/**
+	 * Create the key for a query
+	 * 
+	 * @param language
+	 * @param candidateClass
+	 * @param query
+	 *            The single string form of the query
+	 * @return
+	 */
+	public static String getKey(String language, Class<?> candidateClass,
+			String query) {
+		return new StringBuilder(language).append(':')
+				.append(candidateClass.getName()).append(':').append(query)
+				.toString();
+	}
+
+	/**
+	 * Empty the cache
+	 */
+	public void clear() {
+		plans.clear();
+	}
+}
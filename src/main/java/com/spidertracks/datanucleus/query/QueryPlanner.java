@@ -0,0 +1,418 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.query;
+
+import static com.spidertracks.datanucleus.utils.MetaDataUtils.getColumnName;
+import static com.spidertracks.datanucleus.utils.MetaDataUtils.getIndexName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.cassandra.thrift.IndexOperator;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.IndexMetaData;
+import org.datanucleus.query.expression.DyadicExpression;
+import org.datanucleus.query.expression.Expression;
+import org.datanucleus.query.expression.Literal;
+import org.datanucleus.query.expression.ParameterExpression;
+import org.datanucleus.query.expression.PrimaryExpression;
+import org.datanucleus.util.NucleusLogger;
+import org.scale7.cassandra.pelops.Bytes;
+
+import com.spidertracks.datanucleus.convert.ByteConverterContext;
+import com.spidertracks.datanucleus.query.QueryPlan.AndNode;
+import com.spidertracks.datanucleus.query.QueryPlan.IndexNode;
+import com.spidertracks.datanucleus.query.QueryPlan.Node;
+import com.spidertracks.datanucleus.query.QueryPlan.OrNode;
+import com.spidertracks.datanucleus.query.QueryPlan.Slot;
+
+/**
+ * Chooses the secondary index reads for a compiled filter. For each chain of
+ * && the most selective equality on an indexed field drives the read, and the
+ * remaining comparisons on indexed fields are pushed down into the same index
+ * clause. Anything that can't be pushed down is left for the in memory
+ * evaluator, which then only runs against the narrowed candidates. A filter
+ * is only scanned when no branch of it can be driven by an index.
+ *
+ * @author Todd Nine
+ *
+ */
+public class QueryPlanner {
+
+	/**
+	 * Unique indexes are the most selective, boolean indexes the least
+	 */
+	private static final int RANK_UNIQUE = 0;
+	private static final int RANK_INDEXED = 1;
+	private static final int RANK_BOOLEAN = 2;
+
+	private AbstractClassMetaData metaData;
+
+	private String candidateAlias;
+
+	private ByteConverterContext byteContext;
+
+	/**
+	 *
+	 * @param metaData
+	 *            The candidate class
+	 * @param candidateAlias
+	 *            The alias of the candidate in the filter, may be null
+	 * @param byteContext
+	 */
+	public QueryPlanner(AbstractClassMetaData metaData, String candidateAlias,
+			ByteConverterContext byteContext) {
+		this.metaData = metaData;
+		this.candidateAlias = candidateAlias;
+		this.byteContext = byteContext;
+	}
+
+	/**
+	 * Plan the filter
+	 *
+	 * @param filter
+	 * @return The plan, or {@link QueryPlan#SCAN} if the filter can only be
+	 *         evaluated by scanning the column family
+	 */
+	public QueryPlan plan(Expression filter) {
+		Planned planned = planExpression(filter);
+
+		if (planned == null) {
+			if (NucleusLogger.QUERY.isDebugEnabled()) {
+				NucleusLogger.QUERY.debug("No index can drive filter "
+						+ filter + ", scanning");
+			}
+
+			return QueryPlan.SCAN;
+		}
+
+		return new QueryPlan(planned.node, planned.exact);
+	}
+
+	/**
+	 * Plan a single expression. Returns null if it can't be read from an index
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private Planned planExpression(Expression expr) {
+		if (expr instanceof DyadicExpression
+				&& expr.getOperator() == Expression.OP_OR) {
+
+			Planned left = planExpression(expr.getLeft());
+
+			if (left == null) {
+				return null;
+			}
+
+			Planned right = planExpression(expr.getRight());
+
+			if (right == null) {
+				return null;
+			}
+
+			return new Planned(new OrNode(left.node, right.node), left.exact
+					&& right.exact);
+		}
+
+		List<Expression> conjuncts = new ArrayList<Expression>();
+
+		flattenAnd(expr, conjuncts);
+
+		return planConjunction(conjuncts);
+	}
+
+	/**
+	 * Plan a chain of && expressions
+	 *
+	 * @param conjuncts
+	 * @return
+	 */
+	private Planned planConjunction(List<Expression> conjuncts) {
+		List<RankedSlot> equalities = new ArrayList<RankedSlot>();
+		List<Slot> comparisons = new ArrayList<Slot>();
+		List<Planned> disjunctions = new ArrayList<Planned>();
+
+		// true if every conjunct is read from an index
+		boolean exact = true;
+
+		for (Expression conjunct : conjuncts) {
+
+			RankedSlot slot = toSlot(conjunct);
+
+			if (slot != null) {
+				if (slot.slot.getOp() == IndexOperator.EQ) {
+					equalities.add(slot);
+				} else {
+					comparisons.add(slot.slot);
+				}
+
+				continue;
+			}
+
+			if (conjunct instanceof DyadicExpression
+					&& conjunct.getOperator() == Expression.OP_OR) {
+
+				Planned planned = planExpression(conjunct);
+
+				if (planned != null) {
+					disjunctions.add(planned);
+					continue;
+				}
+			}
+
+			// can't be read from an index, evaluate it in memory
+			exact = false;
+		}
+
+		// ranges are pushed down, but the byte ordering of the validator may
+		// not match the field's ordering, so they're always checked in memory
+		if (comparisons.size() > 0) {
+			exact = false;
+		}
+
+		if (equalities.size() > 0) {
+
+			// the first expression drives the index read
+			Collections.sort(equalities, new Comparator<RankedSlot>() {
+
+				@Override
+				public int compare(RankedSlot o1, RankedSlot o2) {
+					return o1.rank - o2.rank;
+				}
+			});
+
+			List<Slot> slots = new ArrayList<Slot>(equalities.size()
+					+ comparisons.size());
+
+			for (RankedSlot equality : equalities) {
+				slots.add(equality.slot);
+			}
+
+			slots.addAll(comparisons);
+
+			// the driving read is narrower than any ||, check those in memory
+			if (disjunctions.size() > 0) {
+				exact = false;
+			}
+
+			return new Planned(new IndexNode(slots), exact);
+		}
+
+		if (disjunctions.size() == 0) {
+			return null;
+		}
+
+		// no equality to drive the read, intersect the || reads
+		Node node = disjunctions.get(0).node;
+		exact &= disjunctions.get(0).exact;
+
+		for (int i = 1; i < disjunctions.size(); i++) {
+			node = new AndNode(node, disjunctions.get(i).node);
+			exact &= disjunctions.get(i).exact;
+		}
+
+		return new Planned(node, exact);
+	}
+
+	/**
+	 * Add every operand of a chain of && expressions to the list
+	 *
+	 * @param expr
+	 * @param conjuncts
+	 */
+	private void flattenAnd(Expression expr, List<Expression> conjuncts) {
+		if (expr instanceof DyadicExpression
+				&& expr.getOperator() == Expression.OP_AND) {
+			flattenAnd(expr.getLeft(), conjuncts);
+			flattenAnd(expr.getRight(), conjuncts);
+			return;
+		}
+
+		conjuncts.add(expr);
+	}
+
+	/**
+	 * Convert a comparison of an indexed field and a literal or parameter to
+	 * an index expression. Returns null for anything else
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private RankedSlot toSlot(Expression expr) {
+		if (!(expr instanceof DyadicExpression)) {
+			return null;
+		}
+
+		IndexOperator op = getIndexOperator(expr.getOperator());
+
+		if (op == null) {
+			return null;
+		}
+
+		Expression field = expr.getLeft();
+		Expression value = expr.getRight();
+
+		// value on the left, flip the comparison
+		if (!(field instanceof PrimaryExpression)) {
+			field = expr.getRight();
+			value = expr.getLeft();
+			op = flip(op);
+		}
+
+		if (!(field instanceof PrimaryExpression)) {
+			return null;
+		}
+
+		AbstractMemberMetaData member = getMember((PrimaryExpression) field);
+
+		if (member == null || getIndexName(metaData, member) == null) {
+			return null;
+		}
+
+		Bytes literal = null;
+		ParameterExpression parameter = null;
+
+		if (value instanceof ParameterExpression) {
+			parameter = (ParameterExpression) value;
+		} else if (value instanceof Literal
+				&& ((Literal) value).getLiteral() != null) {
+			literal = byteContext.getBytes(((Literal) value).getLiteral());
+		} else {
+			return null;
+		}
+
+		Slot slot = new Slot(getColumnName(metaData,
+				member.getAbsoluteFieldNumber()), op, literal, parameter);
+
+		return new RankedSlot(slot, getRank(member));
+	}
+
+	/**
+	 * Get the member the primary expression refers to. Returns null if it's
+	 * not a field of the candidate
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private AbstractMemberMetaData getMember(PrimaryExpression expr) {
+		String name = expr.getId();
+
+		if (candidateAlias != null && name.startsWith(candidateAlias + ".")) {
+			name = name.substring(candidateAlias.length() + 1);
+		}
+
+		if (name.indexOf('.') != -1) {
+			return null;
+		}
+
+		return metaData.getMetaDataForMember(name);
+	}
+
+	/**
+	 * Rank the selectivity of the index on a member, lower is more selective
+	 *
+	 * @param member
+	 * @return
+	 */
+	private int getRank(AbstractMemberMetaData member) {
+		IndexMetaData index = member.getIndexMetaData();
+
+		if (member.getUniqueMetaData() != null
+				|| (index != null && index.isUnique())) {
+			return RANK_UNIQUE;
+		}
+
+		Class<?> type = member.getType();
+
+		if (type == boolean.class || type == Boolean.class) {
+			return RANK_BOOLEAN;
+		}
+
+		return RANK_INDEXED;
+	}
+
+	private static IndexOperator getIndexOperator(
+			Expression.Operator operator) {
+		if (operator == Expression.OP_EQ) {
+			return IndexOperator.EQ;
+		}
+
+		if (operator == Expression.OP_GT) {
+			return IndexOperator.GT;
+		}
+
+		if (operator == Expression.OP_GTEQ) {
+			return IndexOperator.GTE;
+		}
+
+		if (operator == Expression.OP_LT) {
+			return IndexOperator.LT;
+		}
+
+		if (operator == Expression.OP_LTEQ) {
+			return IndexOperator.LTE;
+		}
+
+		return null;
+	}
+
+	private static IndexOperator flip(IndexOperator op) {
+		switch (op) {
+		case GT:
+			return IndexOperator.LT;
+		case GTE:
+			return IndexOperator.LTE;
+		case LT:
+			return IndexOperator.GT;
+		case LTE:
+			return IndexOperator.GTE;
+		default:
+			return op;
+		}
+	}
+
+	/**
+	 * An index expression with the selectivity of it's index
+	 */
+	private static class RankedSlot {
+		private final Slot slot;
+		private final int rank;
+
+		private RankedSlot(Slot slot, int rank) {
+			this.slot = slot;
+			this.rank = rank;
+		}
+	}
+
+	/**
+	 * The reads for an expression and if they match it exactly
+	 */
+	private static class Planned {
+		private final Node node;
+		private final boolean exact;
+
+		private Planned(Node node, boolean exact) {
+			this.node = node;
+			this.exact = exact;
+		}
+	}
+}
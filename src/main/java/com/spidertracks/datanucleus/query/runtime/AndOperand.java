@@ -17,7 +17,9 @@ Contributors :
  ***********************************************************************/
 package com.spidertracks.datanucleus.query.runtime;
 
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.scale7.cassandra.pelops.Bytes;
 
@@ -40,8 +42,21 @@ public class AndOperand extends Operand {
 			return;
 		}
 		
-		//second child to call
-		candidateKeys.retainAll(child.getCandidateKeys());
+		//second child to call, walk the smaller set and probe the larger.
+		Set<Columns> other = child.getCandidateKeys();
+		
+		Set<Columns> smaller = candidateKeys.size() <= other.size() ? candidateKeys : other;
+		Set<Columns> larger = smaller == candidateKeys ? other : candidateKeys;
+		
+		Set<Columns> intersection = new LinkedHashSet<Columns>();
+		
+		for(Columns row : smaller){
+			if(larger.contains(row)){
+				intersection.add(row);
+			}
+		}
+		
+		candidateKeys = intersection;
 		
 		if(parent != null){
 			parent.complete(this);
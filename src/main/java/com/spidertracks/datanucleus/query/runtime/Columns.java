@@ -24,41 +24,45 @@ import org.apache.cassandra.thrift.Column;
 import org.scale7.cassandra.pelops.Bytes;
 
 /**
- * Class that holds the serialized bytes of the key and the descriminator value if present
+ * Class that holds the serialized bytes of the key and the descriminator value if present.
+ * Equality only uses the row key, every operand in a query reads the same columns so the
+ * values of two rows with the same key are always equal.
  * 
  * @author Todd Nine
  *
  */
 public class Columns {
 	
-	private Bytes rowKey;
+	private final Bytes rowKey;
+	private final int hashCode;
 	private Map<Bytes, Bytes> values;
 
 	
 	public Columns(Bytes rowKey){
 		this.rowKey = rowKey;
+		this.hashCode = rowKey == null ? 0 : rowKey.hashCode();
 		values = new LinkedHashMap<Bytes,Bytes>();
 	}
 	
+	public Bytes getRowKey() {
+		return rowKey;
+	}
+
 	public Bytes getColumnValue(Bytes key) {
 		return values.get(key);
 	}
 
 	/**
-	 * Add the result
+	 * Add the result.  The name and value are views of the column's buffers, not copies
 	 * @param column
 	 */
 	public void addResult(Column column){
-		values.put(new Bytes(column.getName()), new Bytes(column.getValue()));
+		values.put(Bytes.fromByteBuffer(column.name.duplicate()), Bytes.fromByteBuffer(column.value.duplicate()));
 	}
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((rowKey == null) ? 0 : rowKey.hashCode());
-		result = prime * result + ((values == null) ? 0 : values.hashCode());
-		return result;
+		return hashCode;
 	}
 
 	@Override
@@ -70,16 +74,13 @@ public class Columns {
 		if (getClass() != obj.getClass())
 			return false;
 		Columns other = (Columns) obj;
+		if (hashCode != other.hashCode)
+			return false;
 		if (rowKey == null) {
 			if (other.rowKey != null)
 				return false;
 		} else if (!rowKey.equals(other.rowKey))
 			return false;
-		if (values == null) {
-			if (other.values != null)
-				return false;
-		} else if (!values.equals(other.values))
-			return false;
 		return true;
 	}
 
@@ -20,20 +20,13 @@ package com.spidertracks.datanucleus.query.runtime;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Stack;
 
-import org.apache.cassandra.thrift.Column;
-import org.apache.cassandra.thrift.ConsistencyLevel;
 import org.apache.cassandra.thrift.IndexClause;
 import org.apache.cassandra.thrift.IndexExpression;
 import org.apache.cassandra.thrift.IndexOperator;
 import org.apache.commons.codec.binary.Hex;
-import org.datanucleus.exceptions.NucleusException;
 import org.scale7.cassandra.pelops.Bytes;
-import org.scale7.cassandra.pelops.Pelops;
-import org.scale7.cassandra.pelops.Selector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +40,12 @@ public class EqualityOperand extends Operand implements CompressableOperand {
 	
 	private IndexClause clause;
 
+	/**
+	 * 
+	 * @param count
+	 *            The number of rows to read per page of the index. Every
+	 *            matching row is read
+	 */
 	public EqualityOperand(int count) {
 		clause = new IndexClause();
 		clause.setStart_key(new byte[] {});
@@ -105,31 +104,12 @@ public class EqualityOperand extends Operand implements CompressableOperand {
 	@Override
 	public void performQuery(String poolName, String cfName, Bytes[] columns) {
 
-		try {
-			Map<Bytes, List<Column>> results = Pelops.createSelector(poolName)
-					.getIndexedColumns(cfName, clause,
-							Selector.newColumnsPredicate(columns),
-							ConsistencyLevel.QUORUM);
-			Columns cols;
-
-			for (Entry<Bytes, List<Column>> entry : results.entrySet()) {
-
-				if (entry.getValue().size() == 0) {
-					continue;
-				}
-
-				cols = new Columns(entry.getKey());
-
-				for (Column currentCol : entry.getValue()) {
-
-					cols.addResult(currentCol);
-				}
-
-				super.candidateKeys.add(cols);
-			}
+		// page through the index until every match has been read
+		IndexedSliceIterator rows = new IndexedSliceIterator(poolName, cfName,
+				clause, columns, clause.getCount());
 
-		} catch (Exception e) {
-			throw new NucleusException("Error processing secondary index", e);
+		while (rows.hasNext()) {
+			super.candidateKeys.add(rows.next());
 		}
 
 		// signal to the parent node the query completed
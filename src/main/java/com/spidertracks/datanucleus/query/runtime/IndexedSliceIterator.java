@@ -0,0 +1,87 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.query.runtime;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.IndexClause;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.datanucleus.exceptions.NucleusException;
+import org.scale7.cassandra.pelops.Bytes;
+import org.scale7.cassandra.pelops.Pelops;
+import org.scale7.cassandra.pelops.Selector;
+
+/**
+ * Iterates over every row matching a secondary index clause, one page at a
+ * time. The start key of the clause is advanced past the last row returned
+ * until the index is exhausted.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class IndexedSliceIterator extends PagedRowIterator {
+
+	private String poolName;
+
+	private String cfName;
+
+	private IndexClause clause;
+
+	private SlicePredicate predicate;
+
+	/**
+	 * 
+	 * @param poolName
+	 *            The pool to read from
+	 * @param cfName
+	 *            The column family to query
+	 * @param clause
+	 *            The index clause. It is copied, so the caller's start key
+	 *            and count are never changed
+	 * @param columns
+	 *            The columns to read from every row
+	 * @param pageSize
+	 *            The number of rows to read per request
+	 */
+	public IndexedSliceIterator(String poolName, String cfName,
+			IndexClause clause, Bytes[] columns, int pageSize) {
+		super(pageSize);
+		this.poolName = poolName;
+		this.cfName = cfName;
+		this.clause = new IndexClause(clause);
+		this.predicate = Selector.newColumnsPredicate(columns);
+	}
+
+	@Override
+	protected Map<Bytes, List<Column>> readPage(byte[] startKey, int count) {
+
+		clause.setStart_key(startKey);
+		clause.setCount(count);
+
+		try {
+			return Pelops.createSelector(poolName).getIndexedColumns(cfName,
+					clause, predicate, ConsistencyLevel.QUORUM);
+		} catch (Exception e) {
+			throw new NucleusException("Error processing secondary index", e);
+		}
+	}
+
+}
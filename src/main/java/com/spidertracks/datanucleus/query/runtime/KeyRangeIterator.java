@@ -0,0 +1,82 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.query.runtime;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.datanucleus.exceptions.NucleusException;
+import org.scale7.cassandra.pelops.Bytes;
+import org.scale7.cassandra.pelops.Pelops;
+import org.scale7.cassandra.pelops.Selector;
+
+import com.spidertracks.datanucleus.client.Consistency;
+
+/**
+ * Iterates over every row in a column family one page of keys at a time.
+ *
+ * @author Todd Nine
+ *
+ */
+public class KeyRangeIterator extends PagedRowIterator {
+
+	private String poolName;
+
+	private String cfName;
+
+	private SlicePredicate predicate;
+
+	/**
+	 *
+	 * @param poolName
+	 *            The pool to read from
+	 * @param cfName
+	 *            The column family to scan
+	 * @param columns
+	 *            The columns to read from every row
+	 * @param pageSize
+	 *            The number of rows to read per request
+	 */
+	public KeyRangeIterator(String poolName, String cfName, Bytes[] columns,
+			int pageSize) {
+		super(pageSize);
+		this.poolName = poolName;
+		this.cfName = cfName;
+		this.predicate = Selector.newColumnsPredicate(columns);
+	}
+
+	@Override
+	protected Map<Bytes, List<Column>> readPage(byte[] startKey, int count) {
+
+		KeyRange range = new KeyRange();
+		range.setStart_key(startKey);
+		range.setEnd_key(EMPTY);
+		range.setCount(count);
+
+		try {
+			return Pelops.createSelector(poolName).getColumnsFromRows(cfName,
+					range, predicate, Consistency.get());
+		} catch (Exception e) {
+			throw new NucleusException("Error scanning rows", e);
+		}
+	}
+
+}
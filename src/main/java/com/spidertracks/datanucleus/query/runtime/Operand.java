@@ -17,9 +17,14 @@ Contributors :
  ***********************************************************************/
 package com.spidertracks.datanucleus.query.runtime;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import org.datanucleus.exceptions.NucleusException;
 import org.scale7.cassandra.pelops.Bytes;
 
 /**
@@ -42,7 +47,9 @@ public abstract class Operand {
 
 	/**
 	 * Called by the child when it has completed it's operation to signal to the
-	 * parent it is done
+	 * parent it is done. Children may complete concurrently, so
+	 * implementations must be synchronized. Locks are only ever taken from a
+	 * child up to it's parent
 	 * 
 	 * @param child
 	 */
@@ -54,6 +61,84 @@ public abstract class Operand {
 	public abstract void performQuery(String poolName, String cfName,
 			Bytes[] columns);
 
+	/**
+	 * Will run the query with each leaf of the tree submitted to the executor,
+	 * so the secondary index reads of every branch run concurrently. Returns
+	 * once all leaves have completed.
+	 * 
+	 * @param poolName
+	 * @param cfName
+	 * @param columns
+	 * @param executor
+	 */
+	public void performQuery(final String poolName, final String cfName,
+			final Bytes[] columns, ExecutorService executor) {
+
+		List<Operand> leaves = new ArrayList<Operand>();
+
+		collectLeaves(leaves);
+
+		// nothing to run in parallel
+		if (leaves.size() == 1) {
+			performQuery(poolName, cfName, columns);
+			return;
+		}
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(leaves.size());
+
+		for (final Operand leaf : leaves) {
+			futures.add(executor.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					leaf.performQuery(poolName, cfName, columns);
+				}
+			}));
+		}
+
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NucleusException("Interrupted processing secondary index",
+					e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+
+			throw new NucleusException("Error processing secondary index",
+					e.getCause());
+		} finally {
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Add every leaf of this tree to the list. Nodes without children are
+	 * leaves
+	 * 
+	 * @param leaves
+	 */
+	protected void collectLeaves(List<Operand> leaves) {
+		if (left == null && right == null) {
+			leaves.add(this);
+			return;
+		}
+
+		if (left != null) {
+			left.collectLeaves(leaves);
+		}
+
+		if (right != null) {
+			right.collectLeaves(leaves);
+		}
+	}
+
 	/**
 	 * Optimize the query tree for CFS that have descriminators
 	 * 
@@ -18,6 +18,7 @@ Contributors :
 package com.spidertracks.datanucleus.query.runtime;
 
 import java.util.List;
+import java.util.Set;
 
 import org.scale7.cassandra.pelops.Bytes;
 
@@ -40,8 +41,16 @@ public class OrOperand extends Operand {
 			return;
 		}
 		
-		//second child to call
-		candidateKeys.addAll(child.getCandidateKeys());
+		//second child to call, add the smaller set into the larger
+		Set<Columns> other = child.getCandidateKeys();
+		
+		if(other.size() > candidateKeys.size()){
+			Set<Columns> smaller = candidateKeys;
+			candidateKeys = other;
+			other = smaller;
+		}
+		
+		candidateKeys.addAll(other);
 		
 		if(parent != null){
 			parent.complete(this);
@@ -0,0 +1,133 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.query.runtime;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import org.apache.cassandra.thrift.Column;
+import org.scale7.cassandra.pelops.Bytes;
+
+/**
+ * Iterates over rows read from cassandra one page at a time. Each page starts
+ * from the last key of the previous page, so only a single page of rows is
+ * ever held in memory. Rows without any of the selected columns (range ghosts)
+ * are skipped.
+ * 
+ * @author Todd Nine
+ * 
+ */
+public abstract class PagedRowIterator implements Iterator<Columns> {
+
+	protected static final byte[] EMPTY = new byte[] {};
+
+	private int pageSize;
+
+	private LinkedList<Columns> page = new LinkedList<Columns>();
+
+	private Bytes lastKey;
+
+	private boolean exhausted = false;
+
+	/**
+	 * 
+	 * @param pageSize
+	 *            The number of rows to read per request
+	 */
+	protected PagedRowIterator(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Read a page of rows
+	 * 
+	 * @param startKey
+	 *            The inclusive key to start from
+	 * @param count
+	 *            The maximum number of rows to return
+	 * @return The rows in key order
+	 */
+	protected abstract Map<Bytes, List<Column>> readPage(byte[] startKey,
+			int count);
+
+	@Override
+	public boolean hasNext() {
+		while (page.isEmpty() && !exhausted) {
+			fetchPage();
+		}
+
+		return !page.isEmpty();
+	}
+
+	@Override
+	public Columns next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException("No rows left");
+		}
+
+		return page.removeFirst();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("remove isn't supported");
+	}
+
+	/**
+	 * Read the next page of rows. The start key is inclusive, so every page
+	 * after the first skips the row we've already returned
+	 */
+	private void fetchPage() {
+
+		int count = lastKey == null ? pageSize : pageSize + 1;
+
+		Map<Bytes, List<Column>> results = readPage(
+				lastKey == null ? EMPTY : lastKey.toByteArray(), count);
+
+		exhausted = results.size() < count;
+
+		Columns cols;
+
+		for (Entry<Bytes, List<Column>> entry : results.entrySet()) {
+
+			if (entry.getKey().equals(lastKey)) {
+				continue;
+			}
+
+			lastKey = entry.getKey();
+
+			if (entry.getValue().size() == 0) {
+				continue;
+			}
+
+			cols = new Columns(entry.getKey());
+
+			for (Column currentCol : entry.getValue()) {
+				cols.addResult(currentCol);
+			}
+
+			page.add(cols);
+		}
+
+	}
+
+}
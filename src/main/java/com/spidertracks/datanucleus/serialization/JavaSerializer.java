@@ -19,6 +19,7 @@ package com.spidertracks.datanucleus.serialization;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
@@ -26,7 +27,7 @@ import java.io.ObjectOutputStream;
  * @author Todd Nine
  *
  */
-public class JavaSerializer implements Serializer {
+public class JavaSerializer implements StreamSerializer {
 
 
 	/* (non-Javadoc)
@@ -54,18 +55,24 @@ public class JavaSerializer implements Serializer {
 	/* (non-Javadoc)
 	 * @see com.spidertracks.datanucleus.serialization.Serializer#getObject(byte[])
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T getObject(byte[] bytes) {
+		return this.<T> getObject(new ByteArrayInputStream(bytes));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.spidertracks.datanucleus.serialization.StreamSerializer#getObject(java.io.InputStream)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T getObject(InputStream input) {
 		try {
-			ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
 			ObjectInputStream ois;
 
-			ois = new ObjectInputStream(bis);
+			ois = new ObjectInputStream(input);
 
 			T serialized = (T) ois.readObject();
 			ois.close();
-			bis.close();
 
 			return serialized;
 		} catch (Exception e) {
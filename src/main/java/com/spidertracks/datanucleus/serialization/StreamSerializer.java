@@ -0,0 +1,42 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.serialization;
+
+import java.io.InputStream;
+
+/**
+ * A serializer that can read an object straight from a stream. Values are
+ * then read from the column buffers without copying them into an array first.
+ * Serializers that only implement {@link Serializer} are still given a copy
+ * 
+ * @author Todd Nine
+ * 
+ */
+public interface StreamSerializer extends Serializer {
+
+	/**
+	 * Get the object from the stream. The stream holds only the bytes of the
+	 * serialized object
+	 * 
+	 * @param <T>
+	 * @param input
+	 * @return
+	 */
+	public <T> T getObject(InputStream input);
+
+}
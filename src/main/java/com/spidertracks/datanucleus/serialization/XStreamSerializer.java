@@ -20,6 +20,7 @@ package com.spidertracks.datanucleus.serialization;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.datanucleus.store.types.sco.SCO;
 
@@ -31,7 +32,7 @@ import com.thoughtworks.xstream.XStream;
  * @author Todd Nine
  * 
  */
-public class XStreamSerializer implements Serializer {
+public class XStreamSerializer implements StreamSerializer {
 
 	public XStreamSerializer() {
 
@@ -78,13 +79,23 @@ public class XStreamSerializer implements Serializer {
 	 * @see
 	 * com.spidertracks.datanucleus.serialization.Serializer#getObject(byte[])
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T getObject(byte[] bytes) {
+		return this.<T> getObject(new ByteArrayInputStream(bytes));
+	}
 
-		try {
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.spidertracks.datanucleus.serialization.StreamSerializer#getObject(
+	 * java.io.InputStream)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T getObject(InputStream input) {
 
-			ByteArrayInputStream input = new ByteArrayInputStream(bytes);
+		try {
 
 			XStream xstream = new XStream();
 
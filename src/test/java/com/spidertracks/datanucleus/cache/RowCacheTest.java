@@ -0,0 +1,170 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cassandra.thrift.Column;
+import org.junit.Test;
+import org.scale7.cassandra.pelops.Bytes;
+
+/**
+ * @author Todd Nine
+ * 
+ */
+public class RowCacheTest {
+
+	private static final ByteBuffer NAME = Bytes.fromUTF8("name").getBytes();
+	private static final ByteBuffer AGE = Bytes.fromUTF8("age").getBytes();
+
+	@Test
+	public void testHitAndMiss() {
+		RowCache cache = new RowCache(10);
+
+		Bytes key = Bytes.fromUTF8("key");
+
+		assertNull(cache.get(key, Arrays.asList(NAME)));
+
+		cache.put(key, Arrays.asList(NAME, AGE),
+				Arrays.asList(column("name", "todd")), 60000, cache
+						.getVersion(key));
+
+		List<Column> columns = cache.get(key, Arrays.asList(NAME));
+
+		assertNotNull(columns);
+		assertEquals(1, columns.size());
+
+		// age was read but doesn't exist, still a hit
+		columns = cache.get(key, Arrays.asList(NAME, AGE));
+
+		assertNotNull(columns);
+		assertEquals(1, columns.size());
+
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testUnreadColumnMisses() {
+		RowCache cache = new RowCache(10);
+
+		Bytes key = Bytes.fromUTF8("key");
+
+		cache.put(key, Arrays.asList(NAME),
+				Arrays.asList(column("name", "todd")), 60000, cache
+						.getVersion(key));
+
+		assertNull(cache.get(key, Arrays.asList(NAME, AGE)));
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		RowCache cache = new RowCache(2);
+
+		Bytes first = Bytes.fromUTF8("first");
+		Bytes second = Bytes.fromUTF8("second");
+		Bytes third = Bytes.fromUTF8("third");
+
+		cache.put(first, Arrays.asList(NAME),
+				Arrays.asList(column("name", "1")), 60000, cache
+						.getVersion(first));
+		cache.put(second, Arrays.asList(NAME),
+				Arrays.asList(column("name", "2")), 60000, cache
+						.getVersion(second));
+
+		// touch first so second is the eldest
+		assertNotNull(cache.get(first, Arrays.asList(NAME)));
+
+		cache.put(third, Arrays.asList(NAME),
+				Arrays.asList(column("name", "3")), 60000, cache
+						.getVersion(third));
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertNotNull(cache.get(first, Arrays.asList(NAME)));
+		assertNull(cache.get(second, Arrays.asList(NAME)));
+	}
+
+	@Test
+	public void testExpired() throws InterruptedException {
+		RowCache cache = new RowCache(10);
+
+		Bytes key = Bytes.fromUTF8("key");
+
+		cache.put(key, Arrays.asList(NAME),
+				Arrays.asList(column("name", "todd")), 1, cache
+						.getVersion(key));
+
+		Thread.sleep(10);
+
+		assertNull(cache.get(key, Arrays.asList(NAME)));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testInvalidate() {
+		RowCache cache = new RowCache(10);
+
+		Bytes key = Bytes.fromUTF8("key");
+
+		cache.put(key, Arrays.asList(NAME),
+				Arrays.asList(column("name", "todd")), 60000, cache
+						.getVersion(key));
+
+		cache.invalidate(key);
+
+		assertNull(cache.get(key, Arrays.asList(NAME)));
+	}
+
+	@Test
+	public void testInvalidatedDuringRead() {
+		RowCache cache = new RowCache(10);
+
+		Bytes key = Bytes.fromUTF8("key");
+
+		// the version is taken before the read, then the row is written
+		long version = cache.getVersion(key);
+
+		cache.invalidate(key);
+
+		cache.put(key, Arrays.asList(NAME),
+				Arrays.asList(column("name", "stale")), 60000, version);
+
+		assertNull(cache.get(key, Arrays.asList(NAME)));
+		assertEquals(0, cache.size());
+
+		// a read that starts after the write is cached
+		cache.put(key, Arrays.asList(NAME),
+				Arrays.asList(column("name", "todd")), 60000, cache
+						.getVersion(key));
+
+		assertNotNull(cache.get(key, Arrays.asList(NAME)));
+	}
+
+	private static Column column(String name, String value) {
+		return new Column(Bytes.fromUTF8(name).getBytes(), Bytes.fromUTF8(
+				value).getBytes(), 0);
+	}
+}
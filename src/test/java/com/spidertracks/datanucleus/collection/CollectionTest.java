@@ -24,19 +24,29 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.jdo.JDODataStoreException;
+import javax.jdo.JDOHelper;
 import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
 import javax.jdo.Transaction;
 
 import org.datanucleus.exceptions.NucleusObjectNotFoundException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import com.eaio.uuid.UUID;
 import com.spidertracks.datanucleus.CassandraTest;
 import com.spidertracks.datanucleus.collection.model.Card;
+import com.spidertracks.datanucleus.collection.model.Dealer;
+import com.spidertracks.datanucleus.collection.model.Deck;
 import com.spidertracks.datanucleus.collection.model.Pack;
 import com.spidertracks.datanucleus.collection.model.User;
 import com.spidertracks.datanucleus.collection.model.Vehicle;
@@ -48,6 +58,24 @@ import com.spidertracks.datanucleus.collection.model.Vehicle;
 
 public class CollectionTest extends CassandraTest {
 
+	/**
+	 * Loads every collection and map lazily
+	 */
+	private static PersistenceManagerFactory lazyPmf;
+
+	@BeforeClass
+	public static void createLazyFactory() {
+		Map<String, String> overrides = new HashMap<String, String>();
+		overrides.put("com.spidertracks.cassandra.collections.lazy", "true");
+
+		lazyPmf = JDOHelper.getPersistenceManagerFactory(overrides, "Test");
+	}
+
+	@AfterClass
+	public static void closeLazyFactory() {
+		lazyPmf.close();
+	}
+
 	@Test
 	public void testBasicPeristAndLoadOneToManyCollection() throws Exception {
 
@@ -76,6 +104,112 @@ public class CollectionTest extends CassandraTest {
 
 	}
 
+	/**
+	 * More cards than fit in a single slice of the default page size
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testLoadCollectionLargerThanPage() throws Exception {
+
+		Pack pack = new Pack();
+
+		for (int i = 0; i < 250; i++) {
+			Card card = new Card();
+			card.setName("Card " + i);
+			pack.addCard(card);
+		}
+
+		pmf.getPersistenceManager().makePersistent(pack);
+
+		PersistenceManager pm = pmf.getPersistenceManager();
+		pm.getFetchPlan().setFetchSize(100);
+
+		Pack saved = pm.getObjectById(Pack.class, pack.getId());
+
+		assertEquals(pack, saved);
+
+		assertEquals(250, saved.getCards().size());
+
+		for (Card card : pack.getCards()) {
+			assertTrue(saved.getCards().contains(card));
+		}
+
+	}
+
+	@Test
+	public void testRowStorageRemoveAll() throws Exception {
+
+		Deck deck = new Deck();
+
+		Card aceSpades = new Card();
+		aceSpades.setName("Ace of Spades");
+		deck.addCard(aceSpades);
+
+		Card jackHearts = new Card();
+		jackHearts.setName("Jack of Hearts");
+		deck.addCard(jackHearts);
+
+		pmf.getPersistenceManager().makePersistent(deck);
+
+		PersistenceManager pm = pmf.getPersistenceManager();
+
+		Deck saved = pm.getObjectById(Deck.class, deck.getId());
+
+		assertEquals(2, saved.getCards().size());
+		assertTrue(saved.getCards().contains(aceSpades));
+		assertTrue(saved.getCards().contains(jackHearts));
+
+		// null out the collection, this deletes the relationship row
+		saved.setCards(null);
+
+		pm.makePersistent(saved);
+
+		saved = pmf.getPersistenceManager().getObjectById(Deck.class,
+				deck.getId());
+
+		assertNull(saved.getCards());
+
+		// the cards themselves still exist
+		assertNotNull(pmf.getPersistenceManager().getObjectById(Card.class,
+				aceSpades.getId()));
+	}
+
+	@Test
+	public void testColumnFamilyStorage() throws Exception {
+
+		Dealer dealer = new Dealer();
+
+		Card aceSpades = new Card();
+		aceSpades.setName("Ace of Spades");
+		dealer.addCard(aceSpades);
+
+		Card jackHearts = new Card();
+		jackHearts.setName("Jack of Hearts");
+		dealer.addCard(jackHearts);
+
+		pmf.getPersistenceManager().makePersistent(dealer);
+
+		PersistenceManager pm = pmf.getPersistenceManager();
+
+		Dealer saved = pm.getObjectById(Dealer.class, dealer.getId());
+
+		assertEquals(2, saved.getCards().size());
+		assertTrue(saved.getCards().contains(aceSpades));
+		assertTrue(saved.getCards().contains(jackHearts));
+
+		saved.getCards().remove(jackHearts);
+
+		pm.makePersistent(saved);
+
+		saved = pmf.getPersistenceManager().getObjectById(Dealer.class,
+				dealer.getId());
+
+		assertEquals(1, saved.getCards().size());
+		assertTrue(saved.getCards().contains(aceSpades));
+		assertFalse(saved.getCards().contains(jackHearts));
+	}
+
 	@Test
 	@Ignore("Fix the issue with hollow instances being returned")
 	public void testBasicPeristAndLoadOneToManyOrphaned() throws Exception {
@@ -420,4 +554,226 @@ public class CollectionTest extends CassandraTest {
 
 	}
 
+	@Test
+	public void testListOperationsEager() throws Exception {
+		listOperations(pmf, false);
+	}
+
+	@Test
+	public void testListOperationsLazy() throws Exception {
+		listOperations(lazyPmf, true);
+	}
+
+	@Test
+	public void testClearEager() throws Exception {
+		clear(pmf, false);
+	}
+
+	@Test
+	public void testClearLazy() throws Exception {
+		clear(lazyPmf, true);
+	}
+
+	@Test
+	public void testDeletedElementEager() throws Exception {
+		deletedElement(pmf, false);
+	}
+
+	@Test
+	public void testDeletedElementLazy() throws Exception {
+		deletedElement(lazyPmf, true);
+	}
+
+	/**
+	 * Iterate, get by index, add and remove through the loaded list, then
+	 * check the changes were saved
+	 * 
+	 * @param factory
+	 * @param lazy
+	 *            True if the factory loads the list lazily
+	 */
+	private void listOperations(PersistenceManagerFactory factory,
+			boolean lazy) {
+		Dealer dealer = saveDealer("Ace of Spades", "Jack of Hearts",
+				"Two of Clubs");
+
+		Card queenDiamonds = new Card();
+		queenDiamonds.setName("Queen of Diamonds");
+
+		PersistenceManager pm = factory.getPersistenceManager();
+		Transaction tx = pm.currentTransaction();
+
+		List<Card> expected = new ArrayList<Card>();
+
+		try {
+			tx.begin();
+
+			List<Card> cards = pm.getObjectById(Dealer.class, dealer.getId())
+					.getCards();
+
+			assertEquals(lazy, cards instanceof LazyList);
+
+			// iteration and get(i) agree on the order
+			List<Card> iterated = new ArrayList<Card>();
+
+			for (Card card : cards) {
+				iterated.add(card);
+			}
+
+			assertEquals(3, iterated.size());
+			assertEquals(3, cards.size());
+			assertTrue(iterated.containsAll(dealer.getCards()));
+
+			for (int i = 0; i < iterated.size(); i++) {
+				assertEquals(iterated.get(i), cards.get(i));
+			}
+
+			cards.add(queenDiamonds);
+
+			assertEquals(4, cards.size());
+			assertTrue(cards.contains(queenDiamonds));
+
+			// remove by value, then by index
+			Card removed = iterated.get(1);
+
+			assertTrue(cards.remove(removed));
+			assertFalse(cards.contains(removed));
+			assertEquals(3, cards.size());
+
+			Card first = cards.get(0);
+
+			assertEquals(first, cards.remove(0));
+			assertEquals(2, cards.size());
+
+			for (Card card : cards) {
+				expected.add(card);
+			}
+
+			tx.commit();
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+
+			pm.close();
+		}
+
+		List<Card> saved = factory.getPersistenceManager().getObjectById(
+				Dealer.class, dealer.getId()).getCards();
+
+		assertEquals(2, saved.size());
+		assertTrue(saved.containsAll(expected));
+		assertTrue(saved.contains(queenDiamonds));
+	}
+
+	/**
+	 * Clear the loaded list and check nothing is left once it's saved
+	 * 
+	 * @param factory
+	 * @param lazy
+	 *            True if the factory loads the list lazily
+	 */
+	private void clear(PersistenceManagerFactory factory, boolean lazy) {
+		Dealer dealer = saveDealer("Ace of Spades", "Jack of Hearts");
+
+		PersistenceManager pm = factory.getPersistenceManager();
+		Transaction tx = pm.currentTransaction();
+
+		try {
+			tx.begin();
+
+			List<Card> cards = pm.getObjectById(Dealer.class, dealer.getId())
+					.getCards();
+
+			assertEquals(lazy, cards instanceof LazyList);
+
+			cards.clear();
+
+			assertTrue(cards.isEmpty());
+			assertEquals(0, cards.size());
+
+			tx.commit();
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+
+			pm.close();
+		}
+
+		List<Card> saved = factory.getPersistenceManager().getObjectById(
+				Dealer.class, dealer.getId()).getCards();
+
+		// an empty collection is loaded as null when it isn't lazy
+		assertTrue(saved == null || saved.isEmpty());
+
+		// the cards themselves still exist
+		for (Card card : dealer.getCards()) {
+			assertNotNull(factory.getPersistenceManager().getObjectById(
+					Card.class, card.getId()));
+		}
+	}
+
+	/**
+	 * Delete an element without removing it from the list. The reference is
+	 * left out of iteration, size and get(i)
+	 * 
+	 * @param factory
+	 * @param lazy
+	 *            True if the factory loads the list lazily
+	 */
+	private void deletedElement(PersistenceManagerFactory factory,
+			boolean lazy) {
+		Dealer dealer = saveDealer("Ace of Spades", "Jack of Hearts");
+
+		Card kept = dealer.getCards().get(0);
+		Card deleted = dealer.getCards().get(1);
+
+		PersistenceManager pm = pmf.getPersistenceManager();
+		pm.deletePersistent(pm.getObjectById(Card.class, deleted.getId()));
+		pm.close();
+
+		pm = factory.getPersistenceManager();
+
+		try {
+			List<Card> cards = pm.getObjectById(Dealer.class, dealer.getId())
+					.getCards();
+
+			assertEquals(lazy, cards instanceof LazyList);
+
+			assertEquals(1, cards.size());
+			assertFalse(cards.isEmpty());
+			assertEquals(kept, cards.get(0));
+
+			Iterator<Card> iterator = cards.iterator();
+
+			assertEquals(kept, iterator.next());
+			assertFalse(iterator.hasNext());
+		} finally {
+			pm.close();
+		}
+	}
+
+	/**
+	 * Save a dealer with a card for each name
+	 * 
+	 * @param names
+	 * @return
+	 */
+	private Dealer saveDealer(String... names) {
+		Dealer dealer = new Dealer();
+
+		for (String name : names) {
+			Card card = new Card();
+			card.setName(name);
+			dealer.addCard(card);
+		}
+
+		PersistenceManager pm = pmf.getPersistenceManager();
+		pm.makePersistent(dealer);
+		pm.close();
+
+		return dealer;
+	}
+
 }
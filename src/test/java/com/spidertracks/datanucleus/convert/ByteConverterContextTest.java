@@ -0,0 +1,239 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.convert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.OMFContext;
+import org.datanucleus.jdo.JDOPersistenceManagerFactory;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.Relation;
+import org.junit.Test;
+import org.scale7.cassandra.pelops.Bytes;
+
+import com.spidertracks.datanucleus.CassandraStoreManager;
+import com.spidertracks.datanucleus.CassandraTest;
+import com.spidertracks.datanucleus.basic.model.PrimitiveObject;
+import com.spidertracks.datanucleus.serialization.JavaSerializer;
+import com.spidertracks.datanucleus.utils.MetaDataUtils;
+
+/**
+ * Converts from many threads at once through a single context
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class ByteConverterContextTest extends CassandraTest {
+
+	private static final int THREADS = 8;
+
+	private static final int CONVERSIONS = 1000;
+
+	/**
+	 * Classes that aren't default mappings, so their converters are
+	 * determined when first used
+	 */
+	private static final Class<?>[] RESOLVED = { Date.class, Locale.class,
+			Currency.class, BigDecimal.class };
+
+	@Test
+	public void testConcurrentConversion() throws Exception {
+		// nothing resolved yet, so the threads race to cache each converter
+		final ByteConverterContext context = newContext();
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+		final CountDownLatch start = new CountDownLatch(1);
+
+		List<Future<ByteConverter[]>> results = new ArrayList<Future<ByteConverter[]>>();
+
+		try {
+			for (int i = 0; i < THREADS; i++) {
+				results.add(executor.submit(new Callable<ByteConverter[]>() {
+
+					@Override
+					public ByteConverter[] call() throws Exception {
+						start.await();
+
+						ByteConverter[] converters = new ByteConverter[RESOLVED.length];
+
+						for (int j = 0; j < RESOLVED.length; j++) {
+							converters[j] = context.getConverter(RESOLVED[j]);
+						}
+
+						for (int j = 0; j < CONVERSIONS; j++) {
+							roundTrip(context, j);
+						}
+
+						return converters;
+					}
+				}));
+			}
+
+			start.countDown();
+
+			// every thread sees the converter that was cached first
+			for (Future<ByteConverter[]> result : results) {
+				ByteConverter[] converters = result.get();
+
+				for (int j = 0; j < RESOLVED.length; j++) {
+					assertSame(context.getConverter(RESOLVED[j]),
+							converters[j]);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testConverterResolvedOnce() {
+		ByteConverterContext context = getContext();
+
+		// Date is resolved through the type manager, not a default mapping
+		assertSame(context.getConverter(Date.class), context
+				.getConverter(Date.class));
+	}
+
+	@Test
+	public void testCodecPlan() {
+		OMFContext omfContext = ((JDOPersistenceManagerFactory) pmf)
+				.getOMFContext();
+		ClassLoaderResolver clr = omfContext.getClassLoaderResolver(null);
+
+		AbstractClassMetaData metaData = omfContext.getMetaDataManager()
+				.getMetaDataForClass(PrimitiveObject.class, clr);
+
+		ByteConverterContext context = getContext();
+
+		CodecPlan plan = context.getCodecPlan(metaData, clr);
+
+		assertSame(plan, context.getCodecPlan(metaData, clr));
+
+		for (int position : metaData.getAllMemberPositions()) {
+			assertEquals(MetaDataUtils.getColumnName(metaData, position), plan
+					.getColumnName(position));
+			assertSame(metaData
+					.getMetaDataForManagedMemberAtAbsolutePosition(position),
+					plan.getMember(position));
+		}
+
+		int testInt = metaData.getAbsolutePositionOfMember("testInt");
+
+		assertEquals(Relation.NONE, plan.getRelationType(testInt));
+		assertSame(context.getConverter(Integer.class), plan
+				.getConverter(testInt));
+	}
+
+	@Test
+	public void testPrimitivesMatchBoxed() {
+		ByteConverterContext context = getContext();
+
+		assertEquals(context.getBytes(Boolean.TRUE), context.getBytes(true));
+		assertEquals(true, context.getBooleanValue(context.getBytes(true)));
+		assertEquals(false, context.getBooleanValue(context.getBytes(false)));
+
+		assertEquals(context.getBytes(Character.valueOf('x')), context
+				.getBytes('x'));
+		assertEquals('x', context.getCharValue(context.getBytes('x')));
+
+		assertEquals(context.getBytes(Short.valueOf((short) -300)), context
+				.getBytes((short) -300));
+		assertEquals((short) -300, context.getShortValue(context
+				.getBytes((short) -300)));
+
+		assertEquals(context.getBytes(Integer.valueOf(Integer.MIN_VALUE)),
+				context.getBytes(Integer.MIN_VALUE));
+		assertEquals(Integer.MIN_VALUE, context.getIntValue(context
+				.getBytes(Integer.MIN_VALUE)));
+
+		assertEquals(context.getBytes(Long.valueOf(Long.MAX_VALUE)), context
+				.getBytes(Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE, context.getLongValue(context
+				.getBytes(Long.MAX_VALUE)));
+
+		assertEquals(context.getBytes(Float.valueOf(1.5f)), context
+				.getBytes(1.5f));
+		assertEquals(1.5f, context.getFloatValue(context.getBytes(1.5f)), 0);
+
+		assertEquals(context.getBytes(Double.valueOf(-2.25)), context
+				.getBytes(-2.25));
+		assertEquals(-2.25, context.getDoubleValue(context.getBytes(-2.25)), 0);
+
+		// reading doesn't consume the value
+		Bytes intBytes = context.getBytes(42);
+		assertEquals(42, context.getIntValue(intBytes));
+		assertEquals(42, context.getIntValue(intBytes));
+	}
+
+	/**
+	 * Convert a value of each kind of converter and back
+	 * 
+	 * @param context
+	 * @param value
+	 */
+	private void roundTrip(ByteConverterContext context, int value) {
+		Bytes intBytes = context.getBytes((Object) value);
+		assertEquals(value, context.getObject(intBytes, Integer.class));
+
+		String string = "value" + value;
+		Bytes stringBytes = context.getBytes(string);
+		assertEquals(string, context.getObject(stringBytes, String.class));
+
+		Date date = new Date(value);
+		Bytes dateBytes = context.getBytes(date);
+		assertEquals(date, context.getObject(dateBytes, Date.class));
+
+		UUID uuid = new UUID(value, value);
+		Bytes uuidBytes = context.getBytes(uuid);
+		assertEquals(uuid, context.getObject(uuidBytes, UUID.class));
+	}
+
+	private ByteConverterContext getContext() {
+		return ((CassandraStoreManager) ((JDOPersistenceManagerFactory) pmf)
+				.getOMFContext().getStoreManager()).getByteConverterContext();
+	}
+
+	/**
+	 * Create a context that no other test has converted with
+	 * 
+	 * @return
+	 */
+	private ByteConverterContext newContext() {
+		OMFContext omfContext = ((JDOPersistenceManagerFactory) pmf)
+				.getOMFContext();
+
+		return new ByteConverterContext(null, new JavaSerializer(), omfContext
+				.getTypeManager(), omfContext.getApiAdapter());
+	}
+}
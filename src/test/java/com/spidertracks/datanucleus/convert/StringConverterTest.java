@@ -77,6 +77,71 @@ public class StringConverterTest {
 		assertArrayEquals(bytes.toByteArray(), data);
 	}
 
+	/**
+	 * Multibyte strings are longer in bytes than in chars
+	 * 
+	 * @throws UnsupportedEncodingException
+	 */
+	@Test
+	public void testGetBytesMultibyte() throws UnsupportedEncodingException {
+		// 2, 3 and 4 byte encodings
+		String string = "h\u00e9llo \u65e5\u672c\u8a9e \ud83d\ude00";
+		StringConverter converter = new StringConverter();
+
+		ByteBuffer buffer = converter.writeBytes(string, null, null);
+		buffer.limit(buffer.position());
+		buffer.reset();
+
+		byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+
+		assertArrayEquals(string.getBytes("UTF-8"), data);
+
+		buffer.reset();
+
+		assertEquals(string, converter.getObject(buffer, null));
+	}
+
+	/**
+	 * Appending to a buffer that is too small grows it and keeps what was
+	 * already written
+	 * 
+	 * @throws UnsupportedEncodingException
+	 */
+	@Test
+	public void testAppendMultibyte() throws UnsupportedEncodingException {
+		String string = "\u00fcber";
+		StringConverter converter = new StringConverter();
+
+		ByteBuffer buffer = ByteBuffer.allocate(2);
+		buffer.mark();
+		buffer.put((byte) 1);
+
+		StringBuilder expected = new StringBuilder();
+
+		for (int i = 0; i < 1000; i++) {
+			buffer = converter.writeBytes(string, buffer, null);
+			expected.append(string);
+		}
+
+		byte[] encoded = expected.toString().getBytes("UTF-8");
+
+		assertEquals(encoded.length + 1, buffer.position());
+
+		// grown by doubling, not to the exact size of every append
+		assertTrue(buffer.capacity() < 2 * buffer.position());
+
+		buffer.limit(buffer.position());
+		buffer.reset();
+
+		assertEquals(1, buffer.get());
+
+		byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+
+		assertArrayEquals(encoded, data);
+	}
+
 	/**
 	 * Test method for
 	 * {@link com.spidertracks.datanucleus.convert.StringConverter#getBytes(java.lang.Object)}
@@ -0,0 +1,177 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.mutate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Transaction;
+
+import org.junit.Test;
+
+import com.eaio.uuid.UUID;
+import com.spidertracks.datanucleus.CassandraTest;
+import com.spidertracks.datanucleus.basic.model.PrimitiveObject;
+
+/**
+ * Drives many persistence managers at once through the shared
+ * {@link BatchMutationManager}. Every writer holds an open transaction at the
+ * same time, so a context that blocked another would time the test out
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class ConcurrentMutationTest extends CassandraTest {
+
+	private static final int THREADS = 8;
+
+	private static final int OBJECTS = 50;
+
+	private static final long TIMEOUT_SECONDS = 60;
+
+	@Test
+	public void testConcurrentWritesAndDeletes() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+		CyclicBarrier allOpen = new CyclicBarrier(THREADS);
+
+		List<Future<List<UUID>>> results = new ArrayList<Future<List<UUID>>>();
+
+		try {
+			for (int i = 0; i < THREADS; i++) {
+				results.add(executor.submit(new Writer(i, allOpen)));
+			}
+
+			for (int i = 0; i < THREADS; i++) {
+				List<UUID> ids = results.get(i).get(TIMEOUT_SECONDS,
+						TimeUnit.SECONDS);
+
+				assertEquals(OBJECTS, ids.size());
+
+				verify(i, ids);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Check the kept objects of a writer were saved and the rest deleted
+	 * 
+	 * @param writer
+	 * @param ids
+	 */
+	private void verify(int writer, List<UUID> ids) {
+		PersistenceManager pm = pmf.getPersistenceManager();
+
+		try {
+			for (int i = 0; i < ids.size(); i++) {
+
+				if (i % 5 == 0) {
+					try {
+						pm.getObjectById(PrimitiveObject.class, ids.get(i));
+						fail("Object should have been deleted");
+					} catch (JDOObjectNotFoundException e) {
+						// expected
+					}
+
+					continue;
+				}
+
+				PrimitiveObject stored = pm.getObjectById(
+						PrimitiveObject.class, ids.get(i));
+
+				assertEquals(writer, stored.getTestInt());
+				assertEquals(i, stored.getTestLong());
+				assertEquals("writer" + writer, stored.getNonIndexedString());
+			}
+		} finally {
+			pm.close();
+		}
+	}
+
+	/**
+	 * Persists objects in it's own transactions, then deletes every fifth one.
+	 * The first transaction isn't committed until every writer has one open
+	 */
+	private class Writer implements Callable<List<UUID>> {
+
+		private int writer;
+
+		private CyclicBarrier allOpen;
+
+		private Writer(int writer, CyclicBarrier allOpen) {
+			this.writer = writer;
+			this.allOpen = allOpen;
+		}
+
+		@Override
+		public List<UUID> call() throws Exception {
+			PersistenceManager pm = pmf.getPersistenceManager();
+
+			List<UUID> ids = new ArrayList<UUID>(OBJECTS);
+
+			try {
+				Transaction tx = pm.currentTransaction();
+
+				for (int i = 0; i < OBJECTS; i++) {
+					tx.begin();
+
+					PrimitiveObject object = new PrimitiveObject();
+					object.setTestInt(writer);
+					object.setTestLong(i);
+					object.setNonIndexedString("writer" + writer);
+
+					pm.makePersistent(object);
+
+					if (i == 0) {
+						allOpen.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+					}
+
+					tx.commit();
+
+					ids.add(object.getId());
+				}
+
+				for (int i = 0; i < OBJECTS; i += 5) {
+					tx.begin();
+
+					pm.deletePersistent(pm.getObjectById(PrimitiveObject.class,
+							ids.get(i)));
+
+					tx.commit();
+				}
+			} finally {
+				pm.close();
+			}
+
+			return ids;
+		}
+	}
+}
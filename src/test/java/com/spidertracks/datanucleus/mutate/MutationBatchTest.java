@@ -0,0 +1,143 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.mutate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.jdo.PersistenceManager;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.junit.Before;
+import org.junit.Test;
+import org.scale7.cassandra.pelops.Bytes;
+import org.scale7.cassandra.pelops.Pelops;
+import org.scale7.cassandra.pelops.Selector;
+
+import com.spidertracks.datanucleus.CassandraTest;
+import com.spidertracks.datanucleus.basic.model.PrimitiveObject;
+
+/**
+ * Checks writes are coalesced by row and column
+ * 
+ * @author Todd Nine
+ * 
+ */
+public class MutationBatchTest extends CassandraTest {
+
+	private static final String POOL = "TestPool";
+
+	private static final String CF = "PrimitiveObject";
+
+	private static final Bytes COL1 = Bytes.fromUTF8("col1");
+
+	private static final Bytes COL2 = Bytes.fromUTF8("col2");
+
+	@Before
+	public void createColumnFamily() {
+		// saving an object creates the column family
+		PersistenceManager pm = pmf.getPersistenceManager();
+		pm.makePersistent(new PrimitiveObject());
+		pm.close();
+	}
+
+	@Test
+	public void testLastWriteOfColumnWins() throws Exception {
+		Bytes key = Bytes.fromUTF8("lastWriteOfColumnWins");
+
+		MutationBatch batch = new MutationBatch(POOL, timestamp(), 10);
+
+		// cassandra would keep the larger value of two writes with the same
+		// timestamp
+		batch.writeColumn(CF, key, batch.newColumn(COL1, Bytes.fromUTF8("b")));
+		batch.writeColumn(CF, key, batch.newColumn(COL1, Bytes.fromUTF8("a")));
+
+		assertEquals(1, batch.getRowCount());
+
+		batch.execute(ConsistencyLevel.QUORUM);
+
+		List<Column> columns = read(key);
+
+		assertEquals(1, columns.size());
+		assertEquals("a", Bytes.fromByteArray(columns.get(0).getValue())
+				.toUTF8());
+	}
+
+	@Test
+	public void testMergeKeepsNewerWrites() throws Exception {
+		Bytes key = Bytes.fromUTF8("mergeKeepsNewerWrites");
+
+		MutationBatch first = new MutationBatch(POOL, timestamp(), 10);
+		first.writeColumn(CF, key, first.newColumn(COL1, Bytes.fromUTF8("a")));
+		first.writeColumn(CF, key, first.newColumn(COL2, Bytes.fromUTF8("a")));
+
+		MutationBatch second = new MutationBatch(POOL, timestamp() + 1, 10);
+		second.deleteRow(CF, key);
+		second.writeColumn(CF, key, second.newColumn(COL2, null));
+
+		MutationBatch third = new MutationBatch(POOL, timestamp() + 2, 10);
+		third.writeColumn(CF, key, third.newColumn(COL1, Bytes.fromUTF8("b")));
+
+		first.merge(second);
+		first.merge(third);
+
+		first.execute(ConsistencyLevel.QUORUM);
+
+		List<Column> columns = read(key);
+
+		assertEquals(1, columns.size());
+		assertEquals(COL1, Bytes.fromByteArray(columns.get(0).getName()));
+		assertEquals("b", Bytes.fromByteArray(columns.get(0).getValue())
+				.toUTF8());
+	}
+
+	@Test
+	public void testChunkedRowDeletes() throws Exception {
+		MutationBatch write = new MutationBatch(POOL, timestamp(), 3);
+		MutationBatch delete = new MutationBatch(POOL, timestamp() + 1, 3);
+
+		for (int i = 0; i < 10; i++) {
+			Bytes key = Bytes.fromUTF8("chunkedRowDeletes" + i);
+
+			write.writeColumn(CF, key, write.newColumn(COL1, Bytes
+					.fromUTF8("a")));
+			delete.deleteRow(CF, key);
+		}
+
+		write.execute(ConsistencyLevel.QUORUM);
+		delete.execute(ConsistencyLevel.QUORUM);
+
+		for (int i = 0; i < 10; i++) {
+			assertTrue(read(Bytes.fromUTF8("chunkedRowDeletes" + i)).isEmpty());
+		}
+	}
+
+	private long timestamp() {
+		return System.nanoTime() / 1000;
+	}
+
+	private List<Column> read(Bytes key) {
+		Selector selector = Pelops.createSelector(POOL);
+
+		return selector.getColumnsFromRow(CF, key, Selector
+				.newColumnsPredicate(COL1, COL2), ConsistencyLevel.QUORUM);
+	}
+}
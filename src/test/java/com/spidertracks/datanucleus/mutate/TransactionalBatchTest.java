@@ -0,0 +1,224 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.mutate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Transaction;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.eaio.uuid.UUID;
+import com.spidertracks.datanucleus.CassandraTest;
+import com.spidertracks.datanucleus.basic.model.PrimitiveObject;
+import com.spidertracks.datanucleus.collection.model.Card;
+import com.spidertracks.datanucleus.collection.model.Deck;
+
+/**
+ * Writes through a factory with com.spidertracks.cassandra.batch.transactional
+ * set, and reads back through the default factory
+ *
+ * @author Todd Nine
+ *
+ */
+public class TransactionalBatchTest extends CassandraTest {
+
+	private static final int OBJECTS = 20;
+
+	private static PersistenceManagerFactory batchPmf;
+
+	@BeforeClass
+	public static void createFactory() {
+		Map<String, String> overrides = new HashMap<String, String>();
+		overrides.put("com.spidertracks.cassandra.batch.transactional", "true");
+
+		batchPmf = JDOHelper.getPersistenceManagerFactory(overrides, "Test");
+	}
+
+	@AfterClass
+	public static void closeFactory() {
+		batchPmf.close();
+	}
+
+	@Test
+	public void testWritesHeldUntilCommit() throws Exception {
+		PersistenceManager pm = batchPmf.getPersistenceManager();
+		Transaction tx = pm.currentTransaction();
+
+		List<UUID> ids = new ArrayList<UUID>(OBJECTS);
+
+		try {
+			tx.begin();
+
+			for (int i = 0; i < OBJECTS; i++) {
+				ids.add(persist(pm, i));
+			}
+
+			assertNotStored(ids);
+
+			tx.commit();
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+
+			pm.close();
+		}
+
+		assertStored(ids);
+	}
+
+	@Test
+	public void testRollbackWritesNothing() throws Exception {
+		PersistenceManager pm = batchPmf.getPersistenceManager();
+		Transaction tx = pm.currentTransaction();
+
+		List<UUID> ids = new ArrayList<UUID>(OBJECTS);
+
+		try {
+			tx.begin();
+
+			for (int i = 0; i < OBJECTS; i++) {
+				ids.add(persist(pm, i));
+			}
+
+			tx.rollback();
+		} finally {
+			pm.close();
+		}
+
+		assertNotStored(ids);
+	}
+
+	/**
+	 * The relation row is deleted and written again by two root writes in the
+	 * same transaction. The second write must win
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRowWrittenAgainAfterDelete() throws Exception {
+		Deck deck = new Deck();
+
+		Card aceSpades = new Card();
+		aceSpades.setName("Ace of Spades");
+		deck.addCard(aceSpades);
+
+		pmf.getPersistenceManager().makePersistent(deck);
+
+		Card queenHearts = new Card();
+		queenHearts.setName("Queen of Hearts");
+
+		PersistenceManager pm = batchPmf.getPersistenceManager();
+		Transaction tx = pm.currentTransaction();
+
+		try {
+			tx.begin();
+
+			Deck saved = pm.getObjectById(Deck.class, deck.getId());
+
+			// deletes the relationship row
+			saved.setCards(null);
+
+			List<Card> cards = new ArrayList<Card>();
+			cards.add(queenHearts);
+
+			saved.setCards(cards);
+
+			tx.commit();
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+
+			pm.close();
+		}
+
+		Deck stored = pmf.getPersistenceManager().getObjectById(Deck.class,
+				deck.getId());
+
+		assertEquals(1, stored.getCards().size());
+		assertTrue(stored.getCards().contains(queenHearts));
+	}
+
+	private UUID persist(PersistenceManager pm, int i) {
+		PrimitiveObject object = new PrimitiveObject();
+		object.setTestInt(i);
+		object.setNonIndexedString("batched");
+
+		pm.makePersistent(object);
+
+		return object.getId();
+	}
+
+	/**
+	 * Check none of the objects can be read from the default factory
+	 *
+	 * @param ids
+	 */
+	private void assertNotStored(List<UUID> ids) {
+		PersistenceManager pm = pmf.getPersistenceManager();
+
+		try {
+			for (UUID id : ids) {
+				try {
+					pm.getObjectById(PrimitiveObject.class, id);
+					fail("Object should not have been written");
+				} catch (JDOObjectNotFoundException e) {
+					// expected
+				}
+			}
+		} finally {
+			pm.close();
+		}
+	}
+
+	/**
+	 * Check every object can be read from the default factory
+	 *
+	 * @param ids
+	 */
+	private void assertStored(List<UUID> ids) {
+		PersistenceManager pm = pmf.getPersistenceManager();
+
+		try {
+			for (int i = 0; i < ids.size(); i++) {
+				PrimitiveObject stored = pm.getObjectById(
+						PrimitiveObject.class, ids.get(i));
+
+				assertEquals(i, stored.getTestInt());
+				assertEquals("batched", stored.getNonIndexedString());
+			}
+		} finally {
+			pm.close();
+		}
+	}
+}
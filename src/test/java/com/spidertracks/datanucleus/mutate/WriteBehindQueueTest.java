@@ -0,0 +1,283 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.mutate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.jdo.PersistenceManager;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.datanucleus.jdo.JDOPersistenceManagerFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scale7.cassandra.pelops.Bytes;
+import org.scale7.cassandra.pelops.Pelops;
+import org.scale7.cassandra.pelops.Selector;
+
+import com.spidertracks.datanucleus.CassandraStoreManager;
+import com.spidertracks.datanucleus.CassandraTest;
+import com.spidertracks.datanucleus.basic.model.PrimitiveObject;
+import com.spidertracks.datanucleus.client.Consistency;
+import com.spidertracks.datanucleus.mutate.WriteBehindQueue.PendingWrite;
+
+/**
+ * Checks queued batches are merged, and are sent by the writing thread when
+ * the queue can't take them
+ *
+ * @author Todd Nine
+ *
+ */
+public class WriteBehindQueueTest extends CassandraTest {
+
+	private static final String POOL = "TestPool";
+
+	private static final String CF = "PrimitiveObject";
+
+	private static final Bytes COL1 = Bytes.fromUTF8("col1");
+
+	private static final Bytes COL2 = Bytes.fromUTF8("col2");
+
+	private WriteBehindQueue queue;
+
+	// holds the only sending thread until it's released
+	private BlockingBatch blocker;
+
+	@Before
+	public void createColumnFamily() {
+		// saving an object creates the column family
+		PersistenceManager pm = pmf.getPersistenceManager();
+		pm.makePersistent(new PrimitiveObject());
+		pm.close();
+	}
+
+	@After
+	public void shutdownQueue() {
+		if (blocker != null) {
+			blocker.release.countDown();
+		}
+
+		if (queue != null) {
+			queue.shutdown();
+		}
+	}
+
+	@Test
+	public void testMergeIntoQueuedBatch() throws Exception {
+		createQueue(10, 10);
+
+		Bytes key = Bytes.fromUTF8("mergeIntoQueuedBatch");
+
+		RecordingBatch first = new RecordingBatch(timestamp());
+		first.writeColumn(CF, key, first.newColumn(COL1, Bytes.fromUTF8("a")));
+
+		MutationBatch second = new MutationBatch(POOL, timestamp() + 1, 10);
+		second.writeColumn(CF, key, second.newColumn(COL2, Bytes
+				.fromUTF8("b")));
+
+		MutationBatch other = new MutationBatch(POOL, timestamp() + 2, 10);
+		other.writeColumn(CF, key, other.newColumn(COL1, Bytes.fromUTF8("c")));
+
+		PendingWrite queued = queue.submit(first, ConsistencyLevel.QUORUM);
+
+		// merged while the first batch waits
+		assertSame(queued, queue.submit(second, ConsistencyLevel.QUORUM));
+
+		// a different consistency is never merged
+		PendingWrite separate = queue.submit(other, ConsistencyLevel.ONE);
+		assertNotSame(queued, separate);
+
+		assertFalse(queued.isDone());
+
+		blocker.release.countDown();
+
+		queued.get();
+		separate.get();
+
+		assertTrue(first.thread.isDaemon());
+		assertTrue(first.thread.getName().startsWith("cassandra-write-"));
+
+		List<Column> columns = read(key);
+
+		assertEquals(2, columns.size());
+		assertEquals("c", Bytes.fromByteArray(columns.get(0).getValue())
+				.toUTF8());
+		assertEquals("b", Bytes.fromByteArray(columns.get(1).getValue())
+				.toUTF8());
+	}
+
+	@Test
+	public void testFullQueueSendsOnWritingThread() throws Exception {
+		// no room to queue, and no batch can be merged into
+		createQueue(1, 1);
+
+		Bytes queuedKey = Bytes.fromUTF8("fullQueueQueued");
+		Bytes key = Bytes.fromUTF8("fullQueueSendsOnWritingThread");
+
+		MutationBatch queuedBatch = new MutationBatch(POOL, timestamp(), 1);
+		queuedBatch.writeColumn(CF, queuedKey, queuedBatch.newColumn(COL1,
+				Bytes.fromUTF8("a")));
+
+		PendingWrite queued = queue.submit(queuedBatch,
+				ConsistencyLevel.QUORUM);
+
+		RecordingBatch batch = new RecordingBatch(timestamp());
+		batch.writeColumn(CF, key, batch.newColumn(COL1, Bytes.fromUTF8("a")));
+
+		PendingWrite write = queue.submit(batch, ConsistencyLevel.QUORUM);
+
+		// written before submit returned, while the queue is still blocked
+		assertTrue(write.isDone());
+		assertFalse(queued.isDone());
+		assertSame(Thread.currentThread(), batch.thread);
+		assertEquals(1, read(key).size());
+
+		blocker.release.countDown();
+
+		queued.get();
+
+		assertEquals(1, read(queuedKey).size());
+	}
+
+	@Test
+	public void testShutdownQueueSendsOnWritingThread() throws Exception {
+		createQueue(10, 10);
+
+		blocker.release.countDown();
+		queue.shutdown();
+
+		Bytes key = Bytes.fromUTF8("shutdownQueueSendsOnWritingThread");
+
+		RecordingBatch batch = new RecordingBatch(timestamp());
+		batch.writeColumn(CF, key, batch.newColumn(COL1, Bytes.fromUTF8("a")));
+
+		PendingWrite write = queue.submit(batch, ConsistencyLevel.QUORUM);
+
+		assertTrue(write.isDone());
+		assertSame(Thread.currentThread(), batch.thread);
+		assertEquals(1, read(key).size());
+	}
+
+	@Test
+	public void testAwaitWritesReportsFailure() throws Exception {
+		createQueue(10, 10);
+
+		blocker.release.countDown();
+
+		// there is no pool to send to
+		MutationBatch batch = new MutationBatch("NoSuchPool", timestamp(), 10);
+		batch.writeColumn(CF, Bytes.fromUTF8("awaitWritesReportsFailure"),
+				batch.newColumn(COL1, Bytes.fromUTF8("a")));
+
+		ExecutionContextMutate mutations = new ExecutionContextMutate(null,
+				batch, false, true);
+
+		mutations.executeLater(queue);
+
+		try {
+			mutations.awaitWrites();
+			fail("The failed write should have been reported");
+		} catch (NucleusDataStoreException e) {
+			// expected
+		}
+
+		// the failure is only reported once
+		mutations.awaitWrites();
+	}
+
+	/**
+	 * Create a queue with a single thread, and wait until it is held by a
+	 * blocking batch
+	 *
+	 * @param capacity
+	 * @param batchSize
+	 * @throws InterruptedException
+	 */
+	private void createQueue(int capacity, int batchSize)
+			throws InterruptedException {
+		queue = new WriteBehindQueue(1, capacity, batchSize,
+				((CassandraStoreManager) ((JDOPersistenceManagerFactory) pmf)
+						.getOMFContext().getStoreManager())
+						.getRowCacheManager());
+
+		blocker = new BlockingBatch();
+
+		queue.submit(blocker, Consistency.get());
+
+		blocker.started.await();
+	}
+
+	private long timestamp() {
+		return System.nanoTime() / 1000;
+	}
+
+	private List<Column> read(Bytes key) {
+		Selector selector = Pelops.createSelector(POOL);
+
+		return selector.getColumnsFromRow(CF, key, Selector
+				.newColumnsPredicate(COL1, COL2), ConsistencyLevel.QUORUM);
+	}
+
+	/**
+	 * A batch with no writes that holds the thread sending it until released
+	 */
+	private static class BlockingBatch extends MutationBatch {
+
+		private CountDownLatch started = new CountDownLatch(1);
+
+		private CountDownLatch release = new CountDownLatch(1);
+
+		private BlockingBatch() {
+			super(POOL, 0, 1);
+		}
+
+		@Override
+		public void execute(ConsistencyLevel consistency) throws Exception {
+			started.countDown();
+			release.await();
+		}
+	}
+
+	/**
+	 * Records the thread the batch was sent on
+	 */
+	private static class RecordingBatch extends MutationBatch {
+
+		private volatile Thread thread;
+
+		private RecordingBatch(long timestamp) {
+			super(POOL, timestamp, 10);
+		}
+
+		@Override
+		public void execute(ConsistencyLevel consistency) throws Exception {
+			thread = Thread.currentThread();
+			super.execute(consistency);
+		}
+	}
+}
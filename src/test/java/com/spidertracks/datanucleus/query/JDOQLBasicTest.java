@@ -316,6 +316,38 @@ public class JDOQLBasicTest extends CassandraTest {
 		}
 	}
 
+	/**
+	 * The indexed field drives the read, the non indexed field is filtered in
+	 * memory
+	 */
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testFilterIndexedAndNonIndexed() {
+		PersistenceManager pm = pmf.getPersistenceManager();
+		Transaction tx = pm.currentTransaction();
+
+		try {
+			tx.begin();
+			Query q = pm.newQuery(PrimitiveObject.class);
+			q.setFilter("testString == \"two\" && nonIndexedString == \"ntwo\"");
+			Collection c = (Collection) q.execute();
+			assertEquals(1, c.size());
+			assertEquals("two", ((PrimitiveObject) c.iterator().next()).getTestString());
+
+			q = pm.newQuery(PrimitiveObject.class);
+			q.setFilter("testString == \"two\" && nonIndexedString == \"none\"");
+			c = (Collection) q.execute();
+			assertEquals(0, c.size());
+			tx.commit();
+
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+			pm.close();
+		}
+	}
+
 
 	/**
 	 * Test query with parameters (NUCCORE-205)
@@ -378,6 +410,36 @@ public class JDOQLBasicTest extends CassandraTest {
 
 	}
 
+	/**
+	 * Results are loaded a page at a time as we iterate
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testEqualFetchSize() {
+		PersistenceManager pm = pmf.getPersistenceManager();
+
+		Query query = pm.newQuery(Person.class);
+		query.setFilter("firstName == :fN");
+		query.getFetchPlan().setFetchSize(1);
+
+		List<Person> results = (List<Person>) query.execute(p1.getFirstName());
+
+		int count = 0;
+
+		for (Iterator<Person> it = results.iterator(); it.hasNext(); count++) {
+			assertEquals(p1.getFirstName(), it.next().getFirstName());
+		}
+
+		assertEquals(3, count);
+		assertEquals(3, results.size());
+		assertTrue(results.contains(p1));
+		assertTrue(results.contains(p2));
+		assertTrue(results.contains(p3));
+
+		query.closeAll();
+		pm.close();
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	public void testEqualStringId() throws Exception {
@@ -0,0 +1,65 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.query;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * @author Todd Nine
+ * 
+ */
+public class QueryPlanCacheTest {
+
+	@Test
+	public void testPutAndGet() {
+		QueryPlanCache cache = new QueryPlanCache(10);
+
+		String key = QueryPlanCache.getKey("JDOQL", String.class,
+				"SELECT FROM java.lang.String");
+
+		assertNull(cache.get(key));
+
+		assertSame(QueryPlan.SCAN, cache.put(key, QueryPlan.SCAN));
+		assertSame(QueryPlan.SCAN, cache.get(key));
+	}
+
+	@Test
+	public void testClearedWhenFull() {
+		QueryPlanCache cache = new QueryPlanCache(2);
+
+		cache.put("one", QueryPlan.SCAN);
+		cache.put("two", QueryPlan.SCAN);
+		cache.put("three", QueryPlan.SCAN);
+
+		assertNull(cache.get("one"));
+		assertNull(cache.get("two"));
+		assertSame(QueryPlan.SCAN, cache.get("three"));
+	}
+
+	@Test
+	public void testDisabled() {
+		QueryPlanCache cache = new QueryPlanCache(-1);
+
+		cache.put("one", QueryPlan.SCAN);
+
+		assertNull(cache.get("one"));
+	}
+}
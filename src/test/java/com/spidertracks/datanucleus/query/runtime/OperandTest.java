@@ -0,0 +1,121 @@
+/**********************************************************************
+Copyright (c) 2010 Todd Nine. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+ ***********************************************************************/
+package com.spidertracks.datanucleus.query.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.cassandra.thrift.Column;
+import org.junit.Test;
+import org.scale7.cassandra.pelops.Bytes;
+
+/**
+ * @author Todd Nine
+ * 
+ */
+public class OperandTest {
+
+	@Test
+	public void testColumnsEqualOnRowKey() {
+		Columns first = row("key1", "value1");
+		Columns second = row("key1", "value2");
+
+		assertEquals(first, second);
+		assertEquals(first.hashCode(), second.hashCode());
+		assertTrue(!first.equals(row("key2", "value1")));
+	}
+
+	@Test
+	public void testAndIntersection() {
+		AndOperand and = new AndOperand();
+
+		and.complete(new StubOperand(rows("key1", "key2", "key3", "key4")));
+		and.complete(new StubOperand(rows("key4", "key2", "key5")));
+
+		Set<Columns> results = and.getCandidateKeys();
+
+		assertEquals(2, results.size());
+		assertTrue(results.contains(row("key2", null)));
+		assertTrue(results.contains(row("key4", null)));
+	}
+
+	@Test
+	public void testOrUnion() {
+		OrOperand or = new OrOperand();
+
+		or.complete(new StubOperand(rows("key1")));
+		or.complete(new StubOperand(rows("key1", "key2", "key3")));
+
+		Set<Columns> results = or.getCandidateKeys();
+
+		assertEquals(3, results.size());
+		assertTrue(results.contains(row("key1", null)));
+		assertTrue(results.contains(row("key2", null)));
+		assertTrue(results.contains(row("key3", null)));
+	}
+
+	private static Set<Columns> rows(String... keys) {
+		Set<Columns> rows = new LinkedHashSet<Columns>();
+
+		for (String key : keys) {
+			rows.add(row(key, key));
+		}
+
+		return rows;
+	}
+
+	private static Columns row(String key, String value) {
+		Columns columns = new Columns(Bytes.fromUTF8(key));
+
+		if (value != null) {
+			columns.addResult(new Column(Bytes.fromUTF8("col").getBytes(),
+					Bytes.fromUTF8(value).getBytes(), 0));
+		}
+
+		return columns;
+	}
+
+	/**
+	 * Leaf with fixed results
+	 */
+	private static class StubOperand extends Operand {
+
+		private StubOperand(Set<Columns> rows) {
+			candidateKeys = rows;
+		}
+
+		@Override
+		public void complete(Operand child) {
+		}
+
+		@Override
+		public void performQuery(String poolName, String cfName,
+				Bytes[] columns) {
+		}
+
+		@Override
+		public Operand optimizeDescriminator(Bytes descriminatorColumnValue,
+				List<Bytes> possibleValues) {
+			return this;
+		}
+	}
+}
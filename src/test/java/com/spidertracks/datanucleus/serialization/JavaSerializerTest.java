@@ -2,10 +2,13 @@ package com.spidertracks.datanucleus.serialization;
 
 import static org.junit.Assert.assertEquals;
 
+import java.nio.ByteBuffer;
+
 import org.junit.Test;
 
 import com.spidertracks.datanucleus.collection.model.Card;
 import com.spidertracks.datanucleus.collection.model.Pack;
+import com.spidertracks.datanucleus.convert.SerializerWrapperConverter;
 
 public class JavaSerializerTest {
 
@@ -35,6 +38,30 @@ public class JavaSerializerTest {
 		assertEquals(pack.getCards().get(1), jackHearts);
 	}
 
-	
+	@Test
+	public void testConvertInPlace() {
+		JavaSerializer serializer = new JavaSerializer();
+
+		Pack pack = new Pack();
+
+		Card aceSpades = new Card();
+		aceSpades.setName("Ace of Spades");
+		pack.addCard(aceSpades);
+
+		byte[] bytes = serializer.getBytes(pack);
+
+		// surround the value with other bytes, like a column read off the wire
+		byte[] frame = new byte[bytes.length + 20];
+		System.arraycopy(bytes, 0, frame, 10, bytes.length);
+
+		ByteBuffer column = ByteBuffer.wrap(frame, 10, bytes.length).slice();
+
+		Pack returned = (Pack) new SerializerWrapperConverter(serializer)
+				.getObject(column, null);
+
+		assertEquals(pack, returned);
+		assertEquals(aceSpades, returned.getCards().get(0));
+	}
+
 
 }